@@ -0,0 +1,77 @@
+package ch.uzh.ifi.hase.soprafs23.benchmark;
+
+import ch.uzh.ifi.hase.soprafs23.Application;
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.service.IdentityFilter;
+import ch.uzh.ifi.hase.soprafs23.service.PasswordHasher;
+import ch.uzh.ifi.hase.soprafs23.service.TokenIndex;
+import ch.uzh.ifi.hase.soprafs23.service.UsernameIndex;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Starts the application without a web server against its own in-memory H2
+ * database, so the benchmarks measure the service and database layers only.
+ */
+final class BenchmarkApplication {
+
+    static final String PASSWORD = "password";
+
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    private BenchmarkApplication() {
+    }
+
+    static ConfigurableApplicationContext start(String... properties) {
+        List<String> allProperties = new ArrayList<>(Arrays.asList(
+                "spring.datasource.url=jdbc:h2:mem:benchmark-" + UUID.randomUUID(),
+                "spring.main.banner-mode=off",
+                "logging.level.root=WARN"));
+        allProperties.addAll(Arrays.asList(properties));
+        // as command line arguments, so they take precedence over application.properties
+        return new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .run(allProperties.stream().map(property -> "--" + property).toArray(String[]::new));
+    }
+
+    /**
+     * Inserts users 1 to count with plain JDBC batches, much faster than going
+     * through the service. User i has the username "user{i}", the token
+     * "token-{i}" and the password {@value #PASSWORD}, all with the same hash
+     * of the configured strength.
+     */
+    static void insertUsers(ConfigurableApplicationContext context, int count) {
+        JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+        String passwordHash = context.getBean(PasswordHasher.class).hash(PASSWORD);
+        Timestamp creationDate = new Timestamp(System.currentTimeMillis());
+        List<Object[]> batch = new ArrayList<>(INSERT_BATCH_SIZE);
+        for (int i = 1; i <= count; i++) {
+            // the usernames and emails are lower case already, so they are their own keys
+            batch.add(new Object[] {(long) i, "user" + i, "user" + i, "user" + i + "@example.com",
+                    "user" + i + "@example.com", passwordHash, "token-" + i, UserStatus.OFFLINE.ordinal(),
+                    "01-01-2023 00:00:00", creationDate, 0L});
+            if (batch.size() == INSERT_BATCH_SIZE || i == count) {
+                // the quoted table name of the User entity, lower case by the Spring naming strategy
+                jdbcTemplate.batchUpdate("insert into \"user\" (id, username, username_key, email, email_key, password, "
+                        + "token, status, registration_date, creation_date, version) "
+                        + "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                        batch);
+                batch.clear();
+            }
+        }
+        // continue the pooled sequence after the inserted ids
+        jdbcTemplate.execute("alter sequence user_id_seq restart with " + (count + 1000));
+        // as on a restart with these users in the database
+        context.getBean(TokenIndex.class).load();
+        context.getBean(IdentityFilter.class).load();
+        context.getBean(UsernameIndex.class).load();
+    }
+}
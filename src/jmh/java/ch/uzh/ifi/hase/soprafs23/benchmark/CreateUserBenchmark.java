@@ -0,0 +1,58 @@
+package ch.uzh.ifi.hase.soprafs23.benchmark;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.entity.UserIdGenerator;
+import ch.uzh.ifi.hase.soprafs23.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of UserService.createUser with concurrent callers, once with a
+ * sequence call per insert (allocation size 1) and once with the pooled
+ * allocation of 50 ids per sequence call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@Threads(8)
+public class CreateUserBenchmark {
+
+    @Param({"1", "50"})
+    public int allocationSize;
+
+    private final AtomicLong userNumber = new AtomicLong();
+
+    private ConfigurableApplicationContext context;
+
+    private UserService userService;
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        // cheapest password hashes, so the id allocation is not hidden behind the hashing
+        context = BenchmarkApplication.start(
+                "spring.jpa.properties." + UserIdGenerator.ALLOCATION_SIZE_SETTING + "=" + allocationSize,
+                "users.password.bcrypt-strength=4");
+        userService = context.getBean(UserService.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        context.close();
+    }
+
+    @Benchmark
+    public User createUser() {
+        long number = userNumber.incrementAndGet();
+        User newUser = new User();
+        newUser.setUsername("user" + number);
+        newUser.setEmail("user" + number + "@example.com");
+        newUser.setPassword("password");
+        return userService.createUser(newUser);
+    }
+}
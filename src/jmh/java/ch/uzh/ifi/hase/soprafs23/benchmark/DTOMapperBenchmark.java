@@ -0,0 +1,43 @@
+package ch.uzh.ifi.hase.soprafs23.benchmark;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.mapper.DTOMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of mapping a User to its API representation, done once per User in
+ * every response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DTOMapperBenchmark {
+
+    private User user;
+
+    @Setup
+    public void createUser() {
+        user = new User();
+        user.setId(1L);
+        user.setUsername("user1");
+        user.setEmail("user1@example.com");
+        user.setToken("token-1");
+        user.setStatus(UserStatus.ONLINE);
+        user.setRegistrationDate("01-01-2023 00:00:00");
+        user.setCreationDate(new Date());
+        user.setBirthdate("01-01-2000");
+    }
+
+    @Benchmark
+    public UserGetDTO convertEntityToUserGetDTO() {
+        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+    }
+}
@@ -0,0 +1,69 @@
+package ch.uzh.ifi.hase.soprafs23.benchmark;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.service.PasswordHasher;
+import ch.uzh.ifi.hase.soprafs23.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Login throughput per core for each bcrypt strength. A single caller and a
+ * single hashing thread, so the result is what one core can do; multiply by
+ * the number of cores (users.password.hash-threads) for a whole server.
+ * matchesPassword is the password check alone, loginUser the complete
+ * UserService.loginUser around it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+@Threads(1)
+public class LoginBenchmark {
+
+    private static final int USER_COUNT = 1000;
+
+    @Param({"4", "8", "10", "12"})
+    public int bcryptStrength;
+
+    private ConfigurableApplicationContext context;
+
+    private UserService userService;
+
+    private PasswordHasher passwordHasher;
+
+    private String passwordHash;
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        context = BenchmarkApplication.start(
+                "users.password.bcrypt-strength=" + bcryptStrength,
+                "users.password.hash-threads=1");
+        BenchmarkApplication.insertUsers(context, USER_COUNT);
+        userService = context.getBean(UserService.class);
+        passwordHasher = context.getBean(PasswordHasher.class);
+        passwordHash = passwordHasher.hash(BenchmarkApplication.PASSWORD);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        context.close();
+    }
+
+    @Benchmark
+    public boolean matchesPassword() {
+        return passwordHasher.matches(BenchmarkApplication.PASSWORD, passwordHash);
+    }
+
+    @Benchmark
+    public User loginUser() {
+        User userInput = new User();
+        userInput.setUsername("user" + (ThreadLocalRandom.current().nextInt(USER_COUNT) + 1));
+        userInput.setPassword(BenchmarkApplication.PASSWORD);
+        return userService.loginUser(userInput);
+    }
+}
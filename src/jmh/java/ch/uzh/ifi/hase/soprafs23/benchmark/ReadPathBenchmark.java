@@ -0,0 +1,89 @@
+package ch.uzh.ifi.hase.soprafs23.benchmark;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs23.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A page of GET /users read three ways from a database with 100k users: as
+ * managed entities in a read-write transaction (how it was read before), as
+ * entities in a read-only transaction, and as UserGetDTOs projected by the
+ * query. Run with "-prof gc" to compare the allocations per page.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ReadPathBenchmark {
+
+    @Param({"100000"})
+    public int userCount;
+
+    @Param({"100"})
+    public int pageSize;
+
+    private ConfigurableApplicationContext context;
+
+    private UserService userService;
+
+    private UserRepository userRepository;
+
+    private TransactionTemplate readWriteTransaction;
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        context = BenchmarkApplication.start();
+        BenchmarkApplication.insertUsers(context, userCount);
+        userService = context.getBean(UserService.class);
+        userRepository = context.getBean("userRepository", UserRepository.class);
+        readWriteTransaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        context.close();
+    }
+
+    private long randomAfter() {
+        return ThreadLocalRandom.current().nextInt(userCount - pageSize);
+    }
+
+    private static List<UserGetDTO> toUserGetDTOs(Iterable<User> users) {
+        List<UserGetDTO> userGetDTOs = new ArrayList<>();
+        for (User user : users) {
+            userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+        }
+        return userGetDTOs;
+    }
+
+    @Benchmark
+    public List<UserGetDTO> readWriteEntities() {
+        long after = randomAfter();
+        return readWriteTransaction.execute(status -> toUserGetDTOs(
+                userRepository.findByIdGreaterThanOrderByIdAsc(after, PageRequest.of(0, pageSize))));
+    }
+
+    @Benchmark
+    public List<UserGetDTO> readOnlyEntities() {
+        return toUserGetDTOs(userService.getUsers(randomAfter(), pageSize));
+    }
+
+    @Benchmark
+    public List<UserGetDTO> projectedDTOs() {
+        return userService.getUserGetDTOs(randomAfter(), pageSize).getContent();
+    }
+}
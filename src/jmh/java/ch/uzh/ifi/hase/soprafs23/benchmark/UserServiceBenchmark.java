@@ -0,0 +1,90 @@
+package ch.uzh.ifi.hase.soprafs23.benchmark;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.service.UserService;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hot paths of the UserService against an in-memory H2 database that already
+ * contains 10k or 1M users. Every call picks a random existing user, so with
+ * 1M users most lookups miss the user cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UserServiceBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int userCount;
+
+    private final AtomicLong newUserNumber = new AtomicLong();
+
+    private ConfigurableApplicationContext context;
+
+    private UserService userService;
+
+    @Setup(Level.Trial)
+    public void startApplication() {
+        context = BenchmarkApplication.start();
+        BenchmarkApplication.insertUsers(context, userCount);
+        userService = context.getBean(UserService.class);
+        newUserNumber.set(userCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopApplication() {
+        context.close();
+    }
+
+    private int randomUser() {
+        return ThreadLocalRandom.current().nextInt(userCount) + 1;
+    }
+
+    @Benchmark
+    public User createUser() {
+        long number = newUserNumber.incrementAndGet();
+        User newUser = new User();
+        newUser.setUsername("user" + number);
+        newUser.setEmail("user" + number + "@example.com");
+        newUser.setPassword(BenchmarkApplication.PASSWORD);
+        return userService.createUser(newUser);
+    }
+
+    @Benchmark
+    public User loginUser() {
+        User userInput = new User();
+        userInput.setUsername("user" + randomUser());
+        userInput.setPassword(BenchmarkApplication.PASSWORD);
+        return userService.loginUser(userInput);
+    }
+
+    @Benchmark
+    public User getUser() {
+        return userService.getUser(randomUser());
+    }
+
+    @Benchmark
+    public List<User> searchUsers() {
+        // e.g. "user1234" matches user1234 and user12340 to user12349
+        return userService.searchUsers("user" + randomUser() / 10, 10);
+    }
+
+    @Benchmark
+    public User updateUser() {
+        int number = randomUser();
+        User userInput = new User();
+        userInput.setUsername("user" + number);
+        userInput.setBirthdate("01-01-2000");
+        userInput.setToken("token-" + number);
+        return userService.updateUser(userInput, number);
+    }
+}
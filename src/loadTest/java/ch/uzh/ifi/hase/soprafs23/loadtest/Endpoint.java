@@ -0,0 +1,78 @@
+package ch.uzh.ifi.hase.soprafs23.loadtest;
+
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPutDTO;
+
+import java.net.http.HttpRequest;
+
+/**
+ * The UserController endpoints driven by the load test and the request each of
+ * them sends for a given seeded User.
+ */
+enum Endpoint {
+
+    GET_USERS("getUsers") {
+        @Override
+        HttpRequest.Builder request(LoadTestClient client, SeedUser user) {
+            return client.get("/users?limit=20&after=" + Math.max(0, user.getId() - 20));
+        }
+    },
+    GET_USER("getUser") {
+        @Override
+        HttpRequest.Builder request(LoadTestClient client, SeedUser user) {
+            return client.get("/users/" + user.getId());
+        }
+    },
+    LOGIN("login") {
+        @Override
+        HttpRequest.Builder request(LoadTestClient client, SeedUser user) {
+            UserPostDTO userPostDTO = new UserPostDTO();
+            userPostDTO.setUsername(user.getUsername());
+            userPostDTO.setPassword(SeedUser.PASSWORD);
+            return client.post("/login", userPostDTO);
+        }
+    },
+    UPDATE_USER("updateUser") {
+        @Override
+        HttpRequest.Builder request(LoadTestClient client, SeedUser user) {
+            UserPutDTO userPutDTO = new UserPutDTO();
+            userPutDTO.setUsername(user.getUsername());
+            userPutDTO.setBirthdate("01-01-2000");
+            userPutDTO.setToken(user.getToken());
+            return client.put("/users/" + user.getId(), userPutDTO);
+        }
+    },
+    SET_OFFLINE("setOffline") {
+        @Override
+        HttpRequest.Builder request(LoadTestClient client, SeedUser user) {
+            UserPutDTO userPutDTO = new UserPutDTO();
+            userPutDTO.setToken(user.getToken());
+            return client.put("/users/offline/" + user.getId(), userPutDTO);
+        }
+    };
+
+    private final String key;
+
+    Endpoint(String key) {
+        this.key = key;
+    }
+
+    /**
+     * @return the name used for this endpoint in the loadTest.* properties and in the report
+     */
+    String getKey() {
+        return key;
+    }
+
+    abstract HttpRequest.Builder request(LoadTestClient client, SeedUser user);
+
+    static Endpoint fromKey(String key) {
+        for (Endpoint endpoint : values()) {
+            if (endpoint.key.equals(key)) {
+                return endpoint;
+            }
+        }
+        throw new IllegalArgumentException("Unknown endpoint '" + key + "', expected one of getUsers, getUser, "
+                + "login, updateUser, setOffline");
+    }
+}
@@ -0,0 +1,315 @@
+package ch.uzh.ifi.hase.soprafs23.loadtest;
+
+import ch.uzh.ifi.hase.soprafs23.Application;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserBatchResultDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPostDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * End-to-end load test of the UserController. Boots the application on a
+ * random port against a fresh in-memory H2 database, registers
+ * loadTest.users Users and then lets loadTest.concurrency workers send
+ * requests in the ratio given by loadTest.mix, each worker sending its next
+ * request as soon as the previous one is answered.
+ * <p>
+ * Latencies are recorded per endpoint in HdrHistograms. After the run the
+ * throughput and the p50/p99/p99.9 latencies are printed, the full
+ * distributions are written to loadTest.reportDir, and the process exits with
+ * 1 if an error rate or latency threshold (loadTest.maxErrorRate,
+ * loadTest.maxP50Ms, loadTest.maxP99Ms, loadTest.maxP999Ms, each optionally
+ * suffixed with .endpoint) is exceeded.
+ * <p>
+ * With loadTest.virtualThreads the application handles the requests on
+ * virtual threads (spring.threads.virtual.enabled). To compare the two
+ * thread models the peak number of platform threads and the heap usage
+ * during the measurement are reported as well. The workers and the HTTP client
+ * always run on virtual threads, so a high loadTest.concurrency
+ * does not add platform threads on the client side.
+ * <p>
+ * loadTest.bcryptStrength sets the cost of the password hashes
+ * (users.password.bcrypt-strength), which dominates seeding and logins.
+ * Login rate limiting and the shedding of requests while the connection
+ * pool is saturated (ConnectionPoolGuard) are turned off.
+ */
+public final class LoadTest {
+
+    private static final String PREFIX = "loadTest.";
+
+    private static final String DEFAULT_MIX = "getUsers=10,getUser=50,login=15,updateUser=15,setOffline=10";
+
+    private static final int SEED_BATCH_SIZE = 1000;
+
+    private static final long SAMPLE_INTERVAL_MILLIS = 100;
+
+    private static final long MEGABYTE = 1024 * 1024;
+
+    private final Map<Endpoint, Recorder> latencies = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, LongAdder> errors = new EnumMap<>(Endpoint.class);
+
+    private final LoadTestClient client;
+    private final List<SeedUser> users;
+    private final Endpoint[] mix;
+
+    private volatile boolean running = true;
+
+    private int peakThreads;
+    private long peakHeapUsed;
+    private long heapUsedSum;
+    private int heapSamples;
+
+    private LoadTest(LoadTestClient client, List<SeedUser> users, Endpoint[] mix) {
+        this.client = client;
+        this.users = users;
+        this.mix = mix;
+        for (Endpoint endpoint : Endpoint.values()) {
+            latencies.put(endpoint, new Recorder(3));
+            errors.put(endpoint, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int userCount = Integer.getInteger(PREFIX + "users", 1000);
+        int concurrency = Integer.getInteger(PREFIX + "concurrency", 16);
+        Duration warmup = Duration.parse(System.getProperty(PREFIX + "warmup", "PT10S"));
+        Duration duration = Duration.parse(System.getProperty(PREFIX + "duration", "PT30S"));
+        Endpoint[] mix = parseMix(System.getProperty(PREFIX + "mix", DEFAULT_MIX));
+        File reportDir = new File(System.getProperty(PREFIX + "reportDir", "build/reports/loadTest"));
+        boolean virtualThreads = Boolean.getBoolean(PREFIX + "virtualThreads");
+        int bcryptStrength = Integer.getInteger(PREFIX + "bcryptStrength", 10);
+
+        // as command line arguments, so they take precedence over application.properties
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+                .run("--server.port=0",
+                        "--spring.datasource.url=jdbc:h2:mem:loadtest-" + UUID.randomUUID(),
+                        "--spring.main.banner-mode=off",
+                        "--logging.level.root=WARN",
+                        "--spring.threads.virtual.enabled=" + virtualThreads,
+                        "--users.password.bcrypt-strength=" + bcryptStrength,
+                        // all workers log in from the same address
+                        "--users.login.rate-limit.enabled=false",
+                        // no load shedding, every request waits for a connection, so that the
+                        // latencies of the thread models are measured over the same requests
+                        "--users.datasource.max-pending=" + Integer.MAX_VALUE);
+        boolean passed;
+        try {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            LoadTestClient client = new LoadTestClient(
+                    HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                            .executor(Executors.newVirtualThreadPerTaskExecutor()).build(),
+                    context.getBean(ObjectMapper.class), "http://localhost:" + port);
+            List<SeedUser> users = registerUsers(client, userCount);
+
+            System.out.printf("Load test: %d users, %d workers, %ss warmup, %ss measurement, %s threads, mix %s%n",
+                    userCount, concurrency, warmup.getSeconds(), duration.getSeconds(),
+                    virtualThreads ? "virtual" : "platform", System.getProperty(PREFIX + "mix", DEFAULT_MIX));
+            LoadTest loadTest = new LoadTest(client, users, mix);
+            Map<Endpoint, Histogram> histograms = loadTest.run(concurrency, warmup, duration);
+            Map<Endpoint, Long> errorCounts = new EnumMap<>(Endpoint.class);
+            loadTest.errors.forEach((endpoint, count) -> errorCounts.put(endpoint, count.sum()));
+
+            report(histograms, errorCounts, duration, reportDir);
+            System.out.printf("peak platform threads %d, heap used %.1f MB on average, %.1f MB at most%n",
+                    loadTest.peakThreads, loadTest.heapUsedSum / (double) loadTest.heapSamples / MEGABYTE,
+                    loadTest.peakHeapUsed / (double) MEGABYTE);
+            passed = checkThresholds(histograms, errorCounts);
+        }
+        finally {
+            context.close();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static Endpoint[] parseMix(String mix) {
+        List<Endpoint> slots = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] keyAndWeight = entry.trim().split("=");
+            if (keyAndWeight.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry '" + entry + "', expected endpoint=weight");
+            }
+            Endpoint endpoint = Endpoint.fromKey(keyAndWeight[0].trim());
+            int weight = Integer.parseInt(keyAndWeight[1].trim());
+            for (int i = 0; i < weight; i++) {
+                slots.add(endpoint);
+            }
+        }
+        if (slots.isEmpty()) {
+            throw new IllegalArgumentException("The mix '" + mix + "' does not contain any requests");
+        }
+        return slots.toArray(new Endpoint[0]);
+    }
+
+    private static List<SeedUser> registerUsers(LoadTestClient client, int count) throws IOException, InterruptedException {
+        List<SeedUser> users = new ArrayList<>(count);
+        for (int start = 0; start < count; start += SEED_BATCH_SIZE) {
+            List<UserPostDTO> batch = new ArrayList<>();
+            for (int i = start; i < Math.min(count, start + SEED_BATCH_SIZE); i++) {
+                UserPostDTO userPostDTO = new UserPostDTO();
+                userPostDTO.setUsername("loadtest" + i);
+                userPostDTO.setEmail("loadtest" + i + "@example.com");
+                userPostDTO.setPassword(SeedUser.PASSWORD);
+                batch.add(userPostDTO);
+            }
+            UserBatchResultDTO[] results = client.send(client.post("/users/batch", batch).build(),
+                    UserBatchResultDTO[].class);
+            for (UserBatchResultDTO result : results) {
+                if (result.getUser() == null) {
+                    throw new IllegalStateException("Could not register load test user: " + result.getMessage());
+                }
+                users.add(new SeedUser(result.getUser().getId(), result.getUser().getUsername(),
+                        result.getUser().getToken()));
+            }
+        }
+        return users;
+    }
+
+    private Map<Endpoint, Histogram> run(int concurrency, Duration warmup, Duration duration) throws InterruptedException {
+        ExecutorService workers = Executors.newVirtualThreadPerTaskExecutor();
+        for (int i = 0; i < concurrency; i++) {
+            workers.execute(this::work);
+        }
+        Thread.sleep(warmup.toMillis());
+        // discard everything recorded during the warmup
+        for (Endpoint endpoint : Endpoint.values()) {
+            latencies.get(endpoint).reset();
+            errors.get(endpoint).reset();
+        }
+        sampleResources(duration);
+        Map<Endpoint, Histogram> histograms = new EnumMap<>(Endpoint.class);
+        for (Endpoint endpoint : Endpoint.values()) {
+            histograms.put(endpoint, latencies.get(endpoint).getIntervalHistogram());
+        }
+        running = false;
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.MINUTES);
+        return histograms;
+    }
+
+    /**
+     * Samples the platform thread count and the used heap until the measurement is over.
+     */
+    private void sampleResources(Duration duration) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        threads.resetPeakThreadCount();
+        long end = System.nanoTime() + duration.toNanos();
+        while (System.nanoTime() < end) {
+            long heapUsed = memory.getHeapMemoryUsage().getUsed();
+            peakHeapUsed = Math.max(peakHeapUsed, heapUsed);
+            heapUsedSum += heapUsed;
+            heapSamples++;
+            Thread.sleep(Math.min(SAMPLE_INTERVAL_MILLIS, Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()))));
+        }
+        peakThreads = threads.getPeakThreadCount();
+    }
+
+    private void work() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (running) {
+            Endpoint endpoint = mix[random.nextInt(mix.length)];
+            SeedUser user = users.get(random.nextInt(users.size()));
+            long start = System.nanoTime();
+            int status;
+            try {
+                status = client.send(endpoint.request(client, user).build());
+            }
+            catch (IOException e) {
+                status = -1;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            latencies.get(endpoint).recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            if (status < 200 || status >= 300) {
+                errors.get(endpoint).increment();
+            }
+        }
+    }
+
+    private static void report(Map<Endpoint, Histogram> histograms, Map<Endpoint, Long> errors, Duration duration,
+                               File reportDir) throws IOException {
+        double seconds = duration.toMillis() / 1000.0;
+        long totalRequests = 0;
+        System.out.printf("%-12s %10s %8s %10s %10s %10s %10s %10s%n",
+                "endpoint", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+        for (Map.Entry<Endpoint, Histogram> entry : histograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            totalRequests += histogram.getTotalCount();
+            System.out.printf("%-12s %10d %8d %10.1f %10.2f %10.2f %10.2f %10.2f%n",
+                    entry.getKey().getKey(), histogram.getTotalCount(), errors.get(entry.getKey()),
+                    histogram.getTotalCount() / seconds, millis(histogram, 50), millis(histogram, 99),
+                    millis(histogram, 99.9), histogram.getMaxValue() / 1000.0);
+        }
+        System.out.printf("%-12s %10d %8s %10.1f%n", "total", totalRequests, "", totalRequests / seconds);
+
+        // full distributions, e.g. for https://hdrhistogram.github.io/HdrHistogram/plotFiles.html
+        if (!reportDir.isDirectory() && !reportDir.mkdirs()) {
+            throw new IOException("Could not create " + reportDir);
+        }
+        for (Map.Entry<Endpoint, Histogram> entry : histograms.entrySet()) {
+            try (PrintStream out = new PrintStream(new FileOutputStream(new File(reportDir, entry.getKey().getKey() + ".hgrm")))) {
+                entry.getValue().outputPercentileDistribution(out, 1000.0);
+            }
+        }
+        System.out.println("Latency distributions (in ms) written to " + reportDir.getAbsolutePath());
+    }
+
+    private static boolean checkThresholds(Map<Endpoint, Histogram> histograms, Map<Endpoint, Long> errors) {
+        boolean passed = true;
+        for (Map.Entry<Endpoint, Histogram> entry : histograms.entrySet()) {
+            Endpoint endpoint = entry.getKey();
+            Histogram histogram = entry.getValue();
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            double errorRate = (double) errors.get(endpoint) / histogram.getTotalCount();
+            passed &= check(endpoint, "maxErrorRate", "error rate", errorRate);
+            passed &= check(endpoint, "maxP50Ms", "p50", millis(histogram, 50));
+            passed &= check(endpoint, "maxP99Ms", "p99", millis(histogram, 99));
+            passed &= check(endpoint, "maxP999Ms", "p99.9", millis(histogram, 99.9));
+        }
+        return passed;
+    }
+
+    /**
+     * @return false if the value exceeds the threshold set for this endpoint
+     * (loadTest.name.endpoint) or for all endpoints (loadTest.name)
+     */
+    private static boolean check(Endpoint endpoint, String name, String label, double value) {
+        String threshold = System.getProperty(PREFIX + name + "." + endpoint.getKey(),
+                System.getProperty(PREFIX + name, name.equals("maxErrorRate") ? "0" : null));
+        if (threshold == null || value <= Double.parseDouble(threshold)) {
+            return true;
+        }
+        System.out.printf("FAILED: %s %s is %.4f, more than %s%n", endpoint.getKey(), label, value, threshold);
+        return false;
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+}
@@ -0,0 +1,31 @@
+package ch.uzh.ifi.hase.soprafs23.loadtest;
+
+/**
+ * A User registered before the load test starts, together with its token.
+ */
+final class SeedUser {
+
+    static final String PASSWORD = "password";
+
+    private final long id;
+    private final String username;
+    private final String token;
+
+    SeedUser(long id, String username, String token) {
+        this.id = id;
+        this.username = username;
+        this.token = token;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    String getUsername() {
+        return username;
+    }
+
+    String getToken() {
+        return token;
+    }
+}
@@ -3,14 +3,17 @@ package ch.uzh.ifi.hase.soprafs23;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 @RestController
 @SpringBootApplication
+@EnableScheduling
 public class Application {
 
   public static void main(String[] args) {
@@ -29,7 +32,9 @@ public class Application {
     return new WebMvcConfigurer() {
       @Override
       public void addCorsMappings(CorsRegistry registry) {
-        registry.addMapping("/**").allowedOrigins("*").allowedMethods("*");
+        // the frontend runs on another origin and can only read the headers exposed here
+        registry.addMapping("/**").allowedOrigins("*").allowedMethods("*")
+            .exposedHeaders("X-Next-Cursor", HttpHeaders.ETAG, HttpHeaders.RETRY_AFTER);
       }
     };
   }
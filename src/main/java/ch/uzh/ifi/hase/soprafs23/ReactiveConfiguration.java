@@ -0,0 +1,38 @@
+package ch.uzh.ifi.hase.soprafs23;
+
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.config.CorsRegistry;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+/**
+ * Web setup of the "reactive" profile, see application-reactive.properties.
+ */
+@Configuration(proxyBeanMethods = false)
+@Profile("reactive")
+public class ReactiveConfiguration {
+
+  /**
+   * Netty instead of Tomcat, which Spring Boot would prefer because it is on
+   * the classpath for the default profile.
+   */
+  @Bean
+  public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+    return new NettyReactiveWebServerFactory();
+  }
+
+  @Bean
+  public WebFluxConfigurer reactiveCorsConfigurer() {
+    return new WebFluxConfigurer() {
+      @Override
+      public void addCorsMappings(CorsRegistry registry) {
+        // the frontend runs on another origin and can only read the headers exposed here
+        registry.addMapping("/**").allowedOrigins("*").allowedMethods("*")
+            .exposedHeaders("X-Next-Cursor", HttpHeaders.ETAG, HttpHeaders.RETRY_AFTER);
+      }
+    };
+  }
+}
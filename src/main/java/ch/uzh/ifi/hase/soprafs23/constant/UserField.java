@@ -0,0 +1,60 @@
+package ch.uzh.ifi.hase.soprafs23.constant;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+
+import java.util.Date;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * The fields of a UserGetDTO a client can select with "fields=", named like
+ * the attributes of the User entity they are read from.
+ */
+public enum UserField {
+  ID("id", User::getId, (user, value) -> user.setId((Long) value)),
+  EMAIL("email", User::getEmail, (user, value) -> user.setEmail((String) value)),
+  USERNAME("username", User::getUsername, (user, value) -> user.setUsername((String) value)),
+  STATUS("status", User::getStatus, (user, value) -> user.setStatus((UserStatus) value)),
+  REGISTRATION_DATE("registrationDate", User::getRegistrationDate,
+      (user, value) -> user.setRegistrationDate((String) value)),
+  BIRTHDATE("birthdate", User::getBirthdate, (user, value) -> user.setBirthdate((String) value)),
+  CREATION_DATE("creationDate", User::getCreationDate, (user, value) -> user.setCreationDate((Date) value)),
+  TOKEN("token", User::getToken, (user, value) -> user.setToken((String) value));
+
+  private final String attribute;
+  private final Function<User, Object> getter;
+  private final BiConsumer<User, Object> setter;
+
+  UserField(String attribute, Function<User, Object> getter, BiConsumer<User, Object> setter) {
+    this.attribute = attribute;
+    this.getter = getter;
+    this.setter = setter;
+  }
+
+  /**
+   * @return the name of the attribute in the User entity and of the field in the JSON
+   */
+  public String getAttribute() {
+    return attribute;
+  }
+
+  public Object get(User user) {
+    return getter.apply(user);
+  }
+
+  public void set(User user, Object value) {
+    setter.accept(user, value);
+  }
+
+  /**
+   * @return the field with this attribute name, null if there is none
+   */
+  public static UserField fromAttribute(String attribute) {
+    for (UserField field : values()) {
+      if (field.attribute.equals(attribute)) {
+        return field;
+      }
+    }
+    return null;
+  }
+}
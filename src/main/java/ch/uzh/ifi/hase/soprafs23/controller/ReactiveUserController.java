@@ -0,0 +1,232 @@
+package ch.uzh.ifi.hase.soprafs23.controller;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserField;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.exceptions.RetryLaterException;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserAvailabilityDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserBatchResultDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs23.service.LoginRateLimiter;
+import ch.uzh.ifi.hase.soprafs23.service.ReactiveUserService;
+import ch.uzh.ifi.hase.soprafs23.service.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ProblemDetail;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reactive User Controller
+ * The UserController endpoints on WebFlux for the "reactive" profile, with
+ * the same requests and responses. No request blocks a thread, so the number
+ * of open connections is not limited by a thread pool.
+ */
+@RestController
+@Profile("reactive")
+public class ReactiveUserController {
+
+    private final ReactiveUserService userService;
+
+    private final LoginRateLimiter loginRateLimiter;
+
+    private final ObjectMapper objectMapper;
+
+    ReactiveUserController(ReactiveUserService userService, LoginRateLimiter loginRateLimiter,
+                           ObjectMapper objectMapper) {
+        this.userService = userService;
+        this.loginRateLimiter = loginRateLimiter;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * The ETag is the same hash of the page as in the UserController, WebFlux
+     * answers a matching If-None-Match with 304.
+     *
+     * @see UserController#getAllUsers(int, long, org.springframework.web.context.request.WebRequest)
+     */
+    @GetMapping("/users")
+    public Mono<ResponseEntity<List<UserGetDTO>>> getAllUsers(@RequestParam(defaultValue = "" + UserService.MAX_PAGE_SIZE) int limit,
+                                                              @RequestParam(defaultValue = "0") long after) {
+        return userService.getUsers(after, limit).map(users -> {
+            List<UserGetDTO> userGetDTOs = new ArrayList<>(users.getNumberOfElements());
+            for (User user : users) {
+                userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+            }
+            return page(users, userGetDTOs);
+        });
+    }
+
+    /**
+     * Selects the fields from the whole Users, the ReactiveUserRepository
+     * always reads all columns.
+     *
+     * @see UserController#getAllUsers(int, long, String, org.springframework.web.context.request.WebRequest)
+     */
+    @GetMapping(value = "/users", params = "fields")
+    public Mono<ResponseEntity<List<Map<String, Object>>>> getAllUsers(@RequestParam(defaultValue = "" + UserService.MAX_PAGE_SIZE) int limit,
+                                                                       @RequestParam(defaultValue = "0") long after,
+                                                                       @RequestParam String fields) {
+        Set<UserField> userFields = UserController.parseFields(fields);
+        return userService.getUsers(after, limit).map(users -> {
+            List<Map<String, Object>> userFieldMaps = new ArrayList<>(users.getNumberOfElements());
+            for (User user : users) {
+                userFieldMaps.add(UserController.toFields(user, userFields));
+            }
+            return page(users, userFieldMaps);
+        });
+    }
+
+    private <T> ResponseEntity<List<T>> page(Slice<User> users, List<T> userRepresentations) {
+        String nextCursor = users.hasNext()
+                ? String.valueOf(users.getContent().get(users.getNumberOfElements() - 1).getId()) : null;
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .eTag(UserController.pageETag(objectMapper, userRepresentations, nextCursor));
+        if (nextCursor != null) {
+            response.header(UserController.NEXT_CURSOR_HEADER, nextCursor);
+        }
+        return response.body(userRepresentations);
+    }
+
+    /**
+     * Streams all Users as newline delimited JSON, one UserGetDTO per line,
+     * as fast as the client reads them.
+     */
+    @GetMapping(value = "/users/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<UserGetDTO> streamAllUsers() {
+        return userService.streamUsers().map(DTOMapper.INSTANCE::convertEntityToUserGetDTO);
+    }
+
+    /**
+     * Queries the database, there is no IdentityFilter in this profile.
+     *
+     * @see UserController#getAvailability(String, String)
+     */
+    @GetMapping("/users/availability")
+    @ResponseStatus(HttpStatus.OK)
+    public Mono<UserAvailabilityDTO> getAvailability(@RequestParam(required = false) String username,
+                                                     @RequestParam(required = false) String email) {
+        UserController.checkAvailabilityParameters(username, email);
+        UserAvailabilityDTO availability = new UserAvailabilityDTO();
+        Mono<Boolean> usernameAvailable = username == null ? Mono.empty()
+                : userService.isUsernameAvailable(username).doOnNext(availability::setUsernameAvailable);
+        Mono<Boolean> emailAvailable = email == null ? Mono.empty()
+                : userService.isEmailAvailable(email).doOnNext(availability::setEmailAvailable);
+        return usernameAvailable.then(emailAvailable).thenReturn(availability);
+    }
+
+    /**
+     * Range scan on the unique index of the username keys, there is no
+     * UsernameIndex in this profile.
+     *
+     * @see UserController#searchUsers(String, int)
+     */
+    @GetMapping("/users/search")
+    @ResponseStatus(HttpStatus.OK)
+    public Mono<List<UserGetDTO>> searchUsers(@RequestParam(required = false) String prefix,
+                                              @RequestParam(defaultValue = "10") int limit) {
+        return userService.searchUsers(prefix, limit)
+                .map(DTOMapper.INSTANCE::convertEntityToUserGetDTO)
+                .collectList();
+    }
+
+    /**
+     * @see UserController#getUser(long)
+     */
+    @GetMapping("/users/{id}")
+    public Mono<ResponseEntity<UserGetDTO>> getUser(@PathVariable long id) {
+        return userService.getUser(id).map(user -> ResponseEntity.ok()
+                .eTag(UserController.eTag(user))
+                .body(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user)));
+    }
+
+    @PostMapping("/users")
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<UserGetDTO> createUser(@RequestBody UserPostDTO userPostDTO) {
+        User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+        return userService.createUser(userInput).map(DTOMapper.INSTANCE::convertEntityToUserGetDTO);
+    }
+
+    @PostMapping("/users/batch")
+    @ResponseStatus(HttpStatus.OK)
+    public Mono<List<UserBatchResultDTO>> createUsers(@RequestBody List<UserPostDTO> userPostDTOs) {
+        List<User> userInputs = DTOMapper.INSTANCE.convertUserPostDTOsToEntities(userPostDTOs);
+        return userService.createUsers(userInputs).map(UserController::convertResultsToBatchResultDTOs);
+    }
+
+    @PostMapping("/login")
+    @ResponseStatus(HttpStatus.OK)
+    public Mono<UserGetDTO> login(@RequestBody UserPostDTO userPostDTO, ServerHttpRequest request) {
+        User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+        // throttled before the user is looked up
+        InetSocketAddress remoteAddress = request.getRemoteAddress();
+        loginRateLimiter.checkLogin(userInput.getUsername(),
+                remoteAddress == null ? null : remoteAddress.getHostString());
+        return userService.loginUser(userInput).map(DTOMapper.INSTANCE::convertEntityToUserGetDTO);
+    }
+
+    /**
+     * @see UserController#getUser(long, String)
+     */
+    @GetMapping(value = "/users/{id}", params = "fields")
+    public Mono<ResponseEntity<Map<String, Object>>> getUser(@PathVariable long id, @RequestParam String fields) {
+        Set<UserField> userFields = UserController.parseFields(fields);
+        return userService.getUser(id).map(user -> ResponseEntity.ok()
+                .eTag(UserController.eTag(user))
+                .body(UserController.toFields(user, userFields)));
+    }
+
+    /**
+     * @see UserController#updateUser(UserPutDTO, long, String, jakarta.servlet.http.HttpServletResponse)
+     */
+    @PutMapping("/users/{id}")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public Mono<UserGetDTO> updateUser(@RequestBody UserPutDTO userPutDTO, @PathVariable long id,
+                                       @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                       ServerHttpResponse response) {
+        User userInput = DTOMapper.INSTANCE.convertUserPutDTOtoEntity(userPutDTO);
+        userInput.setVersion(UserController.parseVersion(ifMatch));
+        return userService.updateUser(userInput, id)
+                .doOnNext(user -> response.getHeaders().setETag(UserController.eTag(user)))
+                .map(DTOMapper.INSTANCE::convertEntityToUserGetDTO);
+    }
+
+    @PutMapping("/users/offline/{id}")
+    @ResponseStatus(HttpStatus.OK)
+    public Mono<UserGetDTO> setOffline(@RequestBody UserPutDTO userPutDTO, @PathVariable long id) {
+        User userToken = DTOMapper.INSTANCE.convertUserPutDTOtoEntity(userPutDTO);
+        return userService.setUserOffline(userToken, id).map(DTOMapper.INSTANCE::convertEntityToUserGetDTO);
+    }
+
+    @PutMapping("/users/{id}/heartbeat")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public Mono<Void> heartbeat(@RequestBody UserPutDTO userPutDTO, @PathVariable long id) {
+        User userToken = DTOMapper.INSTANCE.convertUserPutDTOtoEntity(userPutDTO);
+        return userService.heartbeat(userToken, id);
+    }
+
+    /**
+     * The default WebFlux error handler drops the headers of the exception, this
+     * one keeps the Retry-After header.
+     */
+    @ExceptionHandler(RetryLaterException.class)
+    public ResponseEntity<ProblemDetail> handleRetryLater(RetryLaterException e) {
+        return ResponseEntity.status(e.getStatusCode()).headers(e.getHeaders()).body(e.getBody());
+    }
+}
@@ -1,38 +1,314 @@
 package ch.uzh.ifi.hase.soprafs23.controller;
 
+import ch.uzh.ifi.hase.soprafs23.constant.UserField;
+import ch.uzh.ifi.hase.soprafs23.datasource.ConnectionPoolGuard;
 import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.exceptions.RetryLaterException;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserAvailabilityDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserBatchResultDTO;
 import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
 import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPostDTO;
 import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPutDTO;
 import ch.uzh.ifi.hase.soprafs23.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs23.service.LoginRateLimiter;
+import ch.uzh.ifi.hase.soprafs23.service.UserCreationResult;
 import ch.uzh.ifi.hase.soprafs23.service.UserService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 
 @RestController
+@Profile("!reactive")
 public class UserController {
 
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+
+    static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    private static final int STREAM_FLUSH_INTERVAL = 100;
+
+    private static final String EXPORT_INTERCEPTOR_KEY = UserController.class.getName() + ".export";
+
     private final UserService userService;
 
-    UserController(UserService userService) {
+    private final ObjectMapper objectMapper;
+
+    private final LoginRateLimiter loginRateLimiter;
+
+    private final ConnectionPoolGuard connectionPoolGuard;
+
+    private final Semaphore exportPermits;
+
+    private final Duration exportTimeout;
+
+    private final Duration exportRetryAfter;
+
+    UserController(UserService userService, ObjectMapper objectMapper, LoginRateLimiter loginRateLimiter,
+                   ConnectionPoolGuard connectionPoolGuard,
+                   @Value("${users.export.max-concurrent:2}") int maxConcurrentExports,
+                   @Value("${users.export.timeout:PT30M}") Duration exportTimeout,
+                   @Value("${users.export.retry-after:PT30S}") Duration exportRetryAfter) {
         this.userService = userService;
+        this.objectMapper = objectMapper;
+        this.loginRateLimiter = loginRateLimiter;
+        this.connectionPoolGuard = connectionPoolGuard;
+        this.exportPermits = new Semaphore(maxConcurrentExports);
+        this.exportTimeout = exportTimeout;
+        this.exportRetryAfter = exportRetryAfter;
     }
 
     /**
-     * @return a List with all Users
+     * Returns one page of Users ordered by id. If there are more Users, the id
+     * to pass as "after" for the next page is sent in the X-Next-Cursor header.
+     * The ETag is a hash of the page; if the client already has the same page
+     * (If-None-Match), 304 is sent without a body.
+     *
+     * @param limit maximum number of Users to return (capped by the server)
+     * @param after id of the last User of the previous page
+     * @return a List with the Users of this page
      */
     @GetMapping("/users")
-    @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public List<UserGetDTO> getAllUsers() {
-        // fetch all users in the internal representation
-        List<User> users = userService.getUsers();
-        List<UserGetDTO> userGetDTOs = new ArrayList<>();
+    public ResponseEntity<List<UserGetDTO>> getAllUsers(@RequestParam(defaultValue = "" + UserService.MAX_PAGE_SIZE) int limit,
+                                                        @RequestParam(defaultValue = "0") long after,
+                                                        WebRequest webRequest) {
+        connectionPoolGuard.checkReadCapacity();
+        return getPage(webRequest, () -> userService.getUserGetDTOs(after, limit), UserGetDTO::getId,
+                Function.identity());
+    }
+
+    /**
+     * Like {@link #getAllUsers(int, long, WebRequest)}, but every User only
+     * has the requested fields, and only their columns are read.
+     *
+     * @param fields comma separated names of the UserGetDTO fields to return
+     */
+    @GetMapping(value = "/users", params = "fields")
+    @ResponseBody
+    public ResponseEntity<List<Map<String, Object>>> getAllUsers(@RequestParam(defaultValue = "" + UserService.MAX_PAGE_SIZE) int limit,
+                                                                 @RequestParam(defaultValue = "0") long after,
+                                                                 @RequestParam String fields,
+                                                                 WebRequest webRequest) {
+        Set<UserField> userFields = parseFields(fields);
+        connectionPoolGuard.checkReadCapacity();
+        return getPage(webRequest, () -> userService.getUsers(after, limit, userFields), User::getId,
+                user -> toFields(user, userFields));
+    }
+
+    private <S, T> ResponseEntity<List<T>> getPage(WebRequest webRequest, Supplier<Slice<S>> page,
+                                                   ToLongFunction<S> idOf, Function<S, T> converter) {
+        // fetch one page of users in the internal representation
+        Slice<S> users = page.get();
+        List<T> userRepresentations = new ArrayList<>(users.getNumberOfElements());
         // convert each user to the API representation
+        for (S user : users) {
+            userRepresentations.add(converter.apply(user));
+        }
+        String nextCursor = users.hasNext()
+                ? String.valueOf(idOf.applyAsLong(users.getContent().get(users.getNumberOfElements() - 1))) : null;
+
+        String eTag = pageETag(objectMapper, userRepresentations, nextCursor);
+        if (webRequest.checkNotModified(eTag)) {
+            return null;
+        }
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(eTag);
+        if (nextCursor != null) {
+            response.header(NEXT_CURSOR_HEADER, nextCursor);
+        }
+        return response.body(userRepresentations);
+    }
+
+    /**
+     * The ETag of a page is a hash of the Users sent and of the next cursor, so
+     * it only depends on what was read, whichever instance or replica it was
+     * read from.
+     */
+    static String pageETag(ObjectMapper objectMapper, List<?> userRepresentations, String nextCursor) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            digest.update(objectMapper.writeValueAsBytes(userRepresentations));
+            if (nextCursor != null) {
+                digest.update(nextCursor.getBytes(StandardCharsets.UTF_8));
+            }
+            return "\"" + HexFormat.of().formatHex(digest.digest()) + "\"";
+        }
+        catch (NoSuchAlgorithmException | JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param fields comma separated names of UserGetDTO fields
+     * @return the fields in the order of the UserGetDTO
+     * @throws ResponseStatusException 400 if there is no field or an unknown one
+     */
+    static Set<UserField> parseFields(String fields) {
+        Set<UserField> userFields = EnumSet.noneOf(UserField.class);
+        for (String name : fields.split(",")) {
+            UserField field = UserField.fromAttribute(name.trim());
+            if (field == null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unknown field: " + name.trim());
+            }
+            userFields.add(field);
+        }
+        return userFields;
+    }
+
+    /**
+     * @return the requested fields of the user, to be written as a JSON object
+     */
+    static Map<String, Object> toFields(User user, Set<UserField> fields) {
+        Map<String, Object> userFields = new LinkedHashMap<>();
+        for (UserField field : fields) {
+            userFields.put(field.getAttribute(), field.get(user));
+        }
+        return userFields;
+    }
+
+    /**
+     * Streams all Users as newline delimited JSON, one UserGetDTO per line.
+     * Every User is written as soon as it is read from the database, so memory
+     * use does not depend on the number of Users. An export holds one
+     * connection of the pool while it runs, so only users.export.max-concurrent
+     * exports run at a time, further ones get 503 with a Retry-After header.
+     * An export is ended after users.export.timeout.
+     *
+     * @return the response body writing the Users
+     */
+    @GetMapping(value = "/users/stream", produces = APPLICATION_NDJSON_VALUE)
+    @ResponseBody
+    public ResponseEntity<StreamingResponseBody> streamAllUsers(HttpServletRequest request) {
+        connectionPoolGuard.checkReadCapacity();
+        if (!exportPermits.tryAcquire()) {
+            throw new RetryLaterException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Too many exports are running, please try again later", exportRetryAfter);
+        }
+        // applies the timeout to this request only, and gives the permit back however the export ends
+        WebAsyncUtils.getAsyncManager(request).registerCallableInterceptor(EXPORT_INTERCEPTOR_KEY,
+                new CallableProcessingInterceptor() {
+                    @Override
+                    public <T> void beforeConcurrentHandling(NativeWebRequest webRequest, Callable<T> task) {
+                        ((AsyncWebRequest) webRequest).setTimeout(exportTimeout.toMillis());
+                    }
+
+                    @Override
+                    public <T> void afterCompletion(NativeWebRequest webRequest, Callable<T> task) {
+                        exportPermits.release();
+                    }
+                });
+        StreamingResponseBody body = outputStream -> {
+            SequenceWriter writer = objectMapper.writerFor(UserGetDTO.class)
+                    .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                    .withRootValueSeparator("\n")
+                    .writeValues(outputStream);
+            int[] written = {0};
+            userService.streamUsers(user -> {
+                try {
+                    writer.write(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+                    // send the first User right away, afterwards flush in chunks
+                    if (written[0]++ % STREAM_FLUSH_INTERVAL == 0) {
+                        writer.flush();
+                    }
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            writer.flush();
+            if (written[0] > 0) {
+                outputStream.write('\n');
+            }
+            writer.close();
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(APPLICATION_NDJSON_VALUE)).body(body);
+    }
+
+    /**
+     * Tells a sign-up form whether a Username and/or Email is still free. Most
+     * free ones are answered from memory. Creating the User can still fail
+     * with 409 if someone takes them in the meantime.
+     *
+     * @param username to check, optional
+     * @param email    to check, optional
+     * @return whether they are available, null for the ones not asked for
+     */
+    @GetMapping("/users/availability")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public UserAvailabilityDTO getAvailability(@RequestParam(required = false) String username,
+                                               @RequestParam(required = false) String email) {
+        checkAvailabilityParameters(username, email);
+        UserAvailabilityDTO availability = new UserAvailabilityDTO();
+        if (username != null) {
+            availability.setUsernameAvailable(userService.isUsernameAvailable(username));
+        }
+        if (email != null) {
+            availability.setEmailAvailable(userService.isEmailAvailable(email));
+        }
+        return availability;
+    }
+
+    static void checkAvailabilityParameters(String username, String email) {
+        if (username == null && email == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "username or email is required");
+        }
+    }
+
+    /**
+     * Autocompletion of Usernames: the Users whose Username starts with the
+     * prefix, ignoring case, in alphabetical order. Answered from an in-memory
+     * index.
+     *
+     * @param prefix the Usernames start with, required
+     * @param limit  maximum number of Users to return (capped by the server)
+     * @return a List with the matching Users
+     */
+    @GetMapping("/users/search")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public List<UserGetDTO> searchUsers(@RequestParam(required = false) String prefix,
+                                        @RequestParam(defaultValue = "10") int limit) {
+        List<User> users = userService.searchUsers(prefix, limit);
+        List<UserGetDTO> userGetDTOs = new ArrayList<>(users.size());
         for (User user : users) {
             userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
         }
@@ -40,16 +316,65 @@ public class UserController {
     }
 
     /**
+     * The ETag is the version and status of the User; if the client already
+     * has them (If-None-Match), 304 is sent without serializing the User.
+     *
      * @param id of the user requested
      * @return a single User object with the requested id
      */
     @GetMapping("/users/{id}")
-    @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public UserGetDTO getUser(@PathVariable long id) {
+    public ResponseEntity<UserGetDTO> getUser(@PathVariable long id) {
         //fetch requested User
         User requestedUser = userService.getUser(id);
-        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(requestedUser);
+        return ResponseEntity.ok()
+                .eTag(eTag(requestedUser))
+                .body(DTOMapper.INSTANCE.convertEntityToUserGetDTO(requestedUser));
+    }
+
+    /**
+     * Like {@link #getUser(long)}, but only with the requested fields. If the
+     * User is not cached, only their columns are read.
+     *
+     * @param fields comma separated names of the UserGetDTO fields to return
+     */
+    @GetMapping(value = "/users/{id}", params = "fields")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> getUser(@PathVariable long id, @RequestParam String fields) {
+        Set<UserField> userFields = parseFields(fields);
+        User requestedUser = userService.getUser(id, userFields);
+        return ResponseEntity.ok()
+                .eTag(eTag(requestedUser))
+                .body(toFields(requestedUser, userFields));
+    }
+
+    static String eTag(User user) {
+        return "\"" + user.getVersion() + "-" + user.getStatus() + "\"";
+    }
+
+    /**
+     * If-Match uses the strong comparison (RFC 9110), so a weak ETag never
+     * matches.
+     *
+     * @param ifMatch the ETag of the User the client last saw, may be null or "*"
+     * @return the version of that ETag, null if any version is accepted
+     * @throws ResponseStatusException 412 if it is a weak ETag or no ETag of a User
+     */
+    static Long parseVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        String eTag = ifMatch.trim();
+        if (eTag.startsWith("W/")) {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "If-Match requires a strong ETag");
+        }
+        int end = eTag.indexOf('-');
+        try {
+            return Long.valueOf(eTag.substring(eTag.startsWith("\"") ? 1 : 0, end < 0 ? eTag.length() : end));
+        }
+        catch (NumberFormatException e) {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED, "If-Match is no ETag of this user");
+        }
     }
 
     /**
@@ -62,13 +387,46 @@ public class UserController {
     @ResponseBody
     public UserGetDTO createUser(@RequestBody UserPostDTO userPostDTO) {
         User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+        connectionPoolGuard.checkCapacity();
         // create user
         User createdUser = userService.createUser(userInput);
         return DTOMapper.INSTANCE.convertEntityToUserGetDTO(createdUser);
     }
 
     /**
-     * Takes Username and Password to check if those match for login
+     * Create many Users at once, e.g. for imports
+     * @param userPostDTOs with Username, Email, and Password of every User
+     * @return per User either the created User (status 201) or why it was not created (status 400 or 409)
+     */
+    @PostMapping("/users/batch")
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public List<UserBatchResultDTO> createUsers(@RequestBody List<UserPostDTO> userPostDTOs) {
+        List<User> userInputs = DTOMapper.INSTANCE.convertUserPostDTOsToEntities(userPostDTOs);
+        connectionPoolGuard.checkCapacity();
+        // create users
+        List<UserCreationResult> results = userService.createUsers(userInputs);
+        return convertResultsToBatchResultDTOs(results);
+    }
+
+    static List<UserBatchResultDTO> convertResultsToBatchResultDTOs(List<UserCreationResult> results) {
+        List<UserBatchResultDTO> resultDTOs = new ArrayList<>(results.size());
+        for (UserCreationResult result : results) {
+            UserBatchResultDTO resultDTO = new UserBatchResultDTO();
+            resultDTO.setStatus(result.getStatus().value());
+            resultDTO.setMessage(result.getMessage());
+            if (result.getUser() != null) {
+                resultDTO.setUser(DTOMapper.INSTANCE.convertEntityToUserGetDTO(result.getUser()));
+            }
+            resultDTOs.add(resultDTO);
+        }
+        return resultDTOs;
+    }
+
+    /**
+     * Takes Username and Password to check if those match for login. Too many
+     * attempts for the same Username or from the same client are rejected with
+     * 429 and a Retry-After header.
      *
      * @param userPostDTO with Username and Password
      * @return the User object if login was successful
@@ -76,27 +434,38 @@ public class UserController {
     @PostMapping("/login")
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public UserGetDTO login(@RequestBody UserPostDTO userPostDTO) {
+    public UserGetDTO login(@RequestBody UserPostDTO userPostDTO, HttpServletRequest request) {
         User userInput = DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+        // throttled before the user is looked up
+        loginRateLimiter.checkLogin(userInput.getUsername(), request.getRemoteAddr());
+        connectionPoolGuard.checkCapacity();
         // create new User
         User loggedInUser = userService.loginUser(userInput);
         return DTOMapper.INSTANCE.convertEntityToUserGetDTO(loggedInUser);
     }
 
     /**
-     * Updates the Username and Birthdate if the request giver has access
+     * Updates the Username and Birthdate if the request giver has access. With
+     * the ETag of the User in If-Match, the update is rejected with 412 if the
+     * User was changed since; the new ETag is sent back.
      *
      * @param userPutDTO with updated Username and Birthdate
      * @param id         of the User to be changed
+     * @param ifMatch    ETag of the User the client last saw, optional
      * @return the update User object
      */
     @PutMapping("/users/{id}")
     @ResponseStatus(HttpStatus.NO_CONTENT)
     @ResponseBody
-    public UserGetDTO updateUser(@RequestBody UserPutDTO userPutDTO, @PathVariable long id) {
+    public UserGetDTO updateUser(@RequestBody UserPutDTO userPutDTO, @PathVariable long id,
+                                 @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                 HttpServletResponse response) {
         User userInput = DTOMapper.INSTANCE.convertUserPutDTOtoEntity(userPutDTO);
+        userInput.setVersion(parseVersion(ifMatch));
+        connectionPoolGuard.checkCapacity();
         //Update the User
         User userUpdate = userService.updateUser(userInput, id);
+        response.setHeader(HttpHeaders.ETAG, eTag(userUpdate));
         return DTOMapper.INSTANCE.convertEntityToUserGetDTO(userUpdate);
     }
 
@@ -112,9 +481,24 @@ public class UserController {
     public UserGetDTO setOffline(@RequestBody UserPutDTO userPutDTO, @PathVariable long id) {
         //Transformation of representation
         User userToken = DTOMapper.INSTANCE.convertUserPutDTOtoEntity(userPutDTO);
+        connectionPoolGuard.checkCapacity();
 
         //Set User Offline
         User userOffline = userService.setUserOffline(userToken, id);
         return DTOMapper.INSTANCE.convertEntityToUserGetDTO(userOffline);
     }
+
+    /**
+     * Heartbeat of a logged in User. Users without a heartbeat for a while are
+     * set Offline automatically.
+     *
+     * @param userPutDTO with the token of the User
+     * @param id of the User sending the heartbeat
+     */
+    @PutMapping("/users/{id}/heartbeat")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void heartbeat(@RequestBody UserPutDTO userPutDTO, @PathVariable long id) {
+        User userToken = DTOMapper.INSTANCE.convertUserPutDTOtoEntity(userPutDTO);
+        userService.heartbeat(userToken, id);
+    }
 }
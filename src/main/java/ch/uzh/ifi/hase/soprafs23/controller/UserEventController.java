@@ -0,0 +1,31 @@
+package ch.uzh.ifi.hase.soprafs23.controller;
+
+import ch.uzh.ifi.hase.soprafs23.service.UserEventBroadcaster;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+
+@RestController
+@Profile("!reactive")
+public class UserEventController {
+
+    private final UserEventBroadcaster userEventBroadcaster;
+
+    UserEventController(UserEventBroadcaster userEventBroadcaster) {
+        this.userEventBroadcaster = userEventBroadcaster;
+    }
+
+    /**
+     * Server-Sent Events stream of the changes to the Users (created, username
+     * changed, status changed), so clients do not have to poll /users.
+     *
+     * @return the event stream
+     */
+    @GetMapping(value = "/users/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter subscribe() {
+        return userEventBroadcaster.subscribe();
+    }
+}
@@ -0,0 +1,109 @@
+package ch.uzh.ifi.hase.soprafs23.datasource;
+
+import ch.uzh.ifi.hase.soprafs23.exceptions.RetryLaterException;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Connection Pool Guard
+ * Sheds requests while the primary connection pool is saturated: once
+ * users.datasource.max-pending threads are already waiting for a connection,
+ * further requests that need the primary are rejected right away with 503
+ * and a Retry-After header, instead of joining the queue and failing only
+ * after the connection timeout. Reads only need the primary if there are no
+ * replicas (see ReplicaDataSource). Requests that do get in but still time
+ * out waiting for a connection get the same answer (see
+ * GlobalExceptionAdvice).
+ */
+@Component
+@Profile("!reactive")
+public class ConnectionPoolGuard implements MeterBinder {
+
+    private final HikariDataSource dataSource;
+
+    private final ReplicaDataSource replicaDataSource;
+
+    private final int maxPending;
+
+    private final Duration retryAfter;
+
+    private final LongAdder rejected = new LongAdder();
+
+    public ConnectionPoolGuard(@Qualifier("primaryDataSource") HikariDataSource dataSource,
+                               @Qualifier("replicaDataSource") ReplicaDataSource replicaDataSource,
+                               @Value("${users.datasource.max-pending:20}") int maxPending,
+                               @Value("${users.datasource.retry-after:PT1S}") Duration retryAfter) {
+        this.dataSource = dataSource;
+        this.replicaDataSource = replicaDataSource;
+        this.maxPending = maxPending;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * For requests that write, and so need a primary connection.
+     *
+     * @throws RetryLaterException with 503 if too many threads are waiting for a connection
+     */
+    public void checkCapacity() {
+        // null until the pool is started by the first connection
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        if (pool != null && pool.getThreadsAwaitingConnection() >= maxPending) {
+            throw unavailable();
+        }
+    }
+
+    /**
+     * For read-only requests: they use a replica if there is one, and a
+     * replica without a free connection is skipped by the ReplicaDataSource
+     * itself.
+     *
+     * @throws RetryLaterException with 503 if there are no replicas and too
+     *                             many threads are waiting for a primary connection
+     */
+    public void checkReadCapacity() {
+        if (!replicaDataSource.hasReplicas()) {
+            checkCapacity();
+        }
+    }
+
+    /**
+     * @return the 503 for a request that timed out waiting for a connection
+     */
+    public RetryLaterException unavailable() {
+        rejected.increment();
+        return new RetryLaterException(HttpStatus.SERVICE_UNAVAILABLE, "The database is busy, please try again later",
+                retryAfter);
+    }
+
+    /**
+     * @return true if the exception, or one of its causes, is a pool that
+     *         gave no connection within the connection timeout
+     */
+    public static boolean isConnectionTimeout(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLTransientConnectionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("users.datasource.rejected", rejected, LongAdder::sum)
+                .description("Requests rejected with 503 because the connection pool was saturated")
+                .register(registry);
+    }
+}
@@ -0,0 +1,97 @@
+package ch.uzh.ifi.hase.soprafs23.datasource;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Data Source Configuration
+ * Writes go to the primary database (spring.datasource.*), reads in read-only
+ * transactions to the replicas in users.datasource.replica-urls. This covers
+ * the @Transactional(readOnly = true) reads of the UserService (user list,
+ * user by id) and the repository methods called outside of a transaction
+ * (e.g. the search), which Spring Data runs read-only. Read-write
+ * transactions, including the reads inside them, stay on the primary.
+ * Without replica URLs everything goes to the primary.
+ * <p>
+ * The routing happens in a LazyConnectionDataSourceProxy: it only fetches a
+ * connection on the first statement, when the transaction has marked it
+ * read-only, and then takes it from the ReplicaDataSource instead of the
+ * primary. Transactions without a statement (e.g. cache hits) do not take a
+ * connection at all.
+ * <p>
+ * Not used by the "reactive" profile, which has no JDBC data source.
+ */
+@Configuration(proxyBeanMethods = false)
+@Profile("!reactive")
+public class DataSourceConfiguration {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    /**
+     * One pool per replica URL, with the credentials and pool settings of the
+     * primary (spring.datasource.hikari.*). A replica that cannot be reached does not stop the
+     * application from starting, its connections fail after the connection
+     * timeout and the ReplicaDataSource moves on to the next one.
+     */
+    @Bean(destroyMethod = "close")
+    public ReplicaDataSource replicaDataSource(
+            @Qualifier("primaryDataSource") HikariDataSource primaryDataSource,
+            @Value("${users.datasource.replica-urls:}") List<String> replicaUrls,
+            @Value("${users.datasource.replica-connection-timeout:PT1S}") Duration connectionTimeout,
+            @Value("${users.datasource.replica-retry-interval:PT10S}") Duration retryInterval,
+            ObjectProvider<MeterRegistry> meterRegistry) {
+        Map<String, DataSource> replicas = new LinkedHashMap<>();
+        for (String url : replicaUrls) {
+            if (url.isBlank()) {
+                continue;
+            }
+            String name = "replica-" + replicas.size();
+            HikariConfig config = new HikariConfig();
+            primaryDataSource.copyStateTo(config);
+            config.setJdbcUrl(url.trim());
+            config.setPoolName(name);
+            config.setConnectionTimeout(connectionTimeout.toMillis());
+            config.setInitializationFailTimeout(-1);
+            // Spring Boot only instruments the pools that are beans (hikaricp.* metrics)
+            meterRegistry.ifAvailable(registry -> config.setMetricsTrackerFactory(
+                    new MicrometerMetricsTrackerFactory(registry)));
+            replicas.put(name, new HikariDataSource(config));
+        }
+        return new ReplicaDataSource(primaryDataSource, replicas, retryInterval);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(@Qualifier("primaryDataSource") HikariDataSource primaryDataSource,
+                                 @Qualifier("replicaDataSource") ReplicaDataSource replicaDataSource) {
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(primaryDataSource);
+        if (replicaDataSource.hasReplicas()) {
+            dataSource.setReadOnlyDataSource(replicaDataSource);
+        }
+        return dataSource;
+    }
+}
@@ -0,0 +1,185 @@
+package ch.uzh.ifi.hase.soprafs23.datasource;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replica Data Source
+ * Hands out connections to read replicas in turn (round robin). A replica
+ * that fails to give a connection is skipped for the retry interval (one
+ * whose pool is only exhausted is not), after
+ * which the next request tries it again; when no replica is available the
+ * connection comes from the primary, so reads keep working (on the primary)
+ * while all replicas are down.
+ */
+public class ReplicaDataSource extends AbstractDataSource implements MeterBinder, Closeable {
+
+    private final Logger log = LoggerFactory.getLogger(ReplicaDataSource.class);
+
+    private final DataSource primary;
+
+    private final List<Replica> replicas = new ArrayList<>();
+
+    private final long retryIntervalNanos;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final LongAdder primaryFallbacks = new LongAdder();
+
+    /**
+     * @param primary       used when no replica is available
+     * @param replicas      by name (e.g. replica-0), in the order they are tried
+     * @param retryInterval for which a replica is skipped after it failed
+     */
+    public ReplicaDataSource(DataSource primary, Map<String, DataSource> replicas, Duration retryInterval) {
+        this.primary = primary;
+        replicas.forEach((name, dataSource) -> this.replicas.add(new Replica(name, dataSource)));
+        this.retryIntervalNanos = retryInterval.toNanos();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnection(null, null);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        int size = replicas.size();
+        if (size > 0) {
+            int start = Math.floorMod(next.getAndIncrement(), size);
+            long now = System.nanoTime();
+            for (int i = 0; i < size; i++) {
+                Replica replica = replicas.get((start + i) % size);
+                if (replica.isAvailable(now)) {
+                    try {
+                        Connection connection = username == null ? replica.dataSource.getConnection()
+                                : replica.dataSource.getConnection(username, password);
+                        if (replica.succeeded()) {
+                            log.info("Replica {} is available again", replica.name);
+                        }
+                        return connection;
+                    }
+                    catch (SQLException | RuntimeException e) {
+                        if (isPoolExhausted(e)) {
+                            // the replica works but is busy, the next one may have a connection
+                            log.debug("Replica {} has no free connection", replica.name);
+                            continue;
+                        }
+                        replica.failed(System.nanoTime() + retryIntervalNanos);
+                        log.warn("Replica {} failed, skipping it for {} ms: {}", replica.name,
+                                Duration.ofNanos(retryIntervalNanos).toMillis(), e.getMessage());
+                    }
+                }
+            }
+        }
+        primaryFallbacks.increment();
+        return username == null ? primary.getConnection() : primary.getConnection(username, password);
+    }
+
+    /**
+     * A Hikari pool that timed out waiting for a free connection, without a
+     * failure to open one (which would be the cause), is saturated but not
+     * broken.
+     */
+    private static boolean isPoolExhausted(Exception e) {
+        return e instanceof SQLTransientConnectionException && e.getCause() == null;
+    }
+
+    public boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    /**
+     * @return the names of the replicas that are currently not skipped
+     */
+    public List<String> getAvailableReplicas() {
+        long now = System.nanoTime();
+        return replicas.stream().filter(replica -> replica.isAvailable(now)).map(replica -> replica.name).toList();
+    }
+
+    /**
+     * Publishes the connections handed out per replica and by the primary
+     * (users.datasource.read-connections) and the available replicas.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (Replica replica : replicas) {
+            FunctionCounter.builder("users.datasource.read-connections", replica.connections, LongAdder::sum)
+                    .tag("target", replica.name)
+                    .register(registry);
+        }
+        FunctionCounter.builder("users.datasource.read-connections", primaryFallbacks, LongAdder::sum)
+                .tag("target", "primary")
+                .register(registry);
+        Gauge.builder("users.datasource.replicas.available", this, source -> source.getAvailableReplicas().size())
+                .register(registry);
+    }
+
+    /**
+     * Closes the replica pools, the primary is closed by its own bean.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof Closeable closeable) {
+                closeable.close();
+            }
+        }
+    }
+
+    private static final class Replica {
+
+        private final String name;
+
+        private final DataSource dataSource;
+
+        private final LongAdder connections = new LongAdder();
+
+        // System.nanoTime() until which the replica is skipped, 0 while it works
+        private volatile long skippedUntil;
+
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        private boolean isAvailable(long now) {
+            long until = skippedUntil;
+            return until == 0 || now - until >= 0;
+        }
+
+        /**
+         * @return true if the replica was skipped before
+         */
+        private boolean succeeded() {
+            connections.increment();
+            if (skippedUntil != 0) {
+                skippedUntil = 0;
+                return true;
+            }
+            return false;
+        }
+
+        private void failed(long until) {
+            skippedUntil = until == 0 ? 1 : until;
+        }
+    }
+}
@@ -2,9 +2,10 @@ package ch.uzh.ifi.hase.soprafs23.entity;
 
 import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
 
-import javax.persistence.*;
+import jakarta.persistence.*;
 import java.io.Serializable;
 import java.util.Date;
+import java.util.Locale;
 
 /**
  * Internal User Representation
@@ -17,13 +18,15 @@ import java.util.Date;
  * the primary key
  */
 @Entity
-@Table(name = "USER")
+@Table(name = "`USER`")
 public class User implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    // pooled sequence: one sequence call per allocation (50 by default) instead
+    // of one per insert, which also allows hibernate to batch the inserts
     @Id
-    @GeneratedValue
+    @UserIdSequence(sequenceName = "user_id_seq", allocationSize = 50)
     private Long id;
 
     @Column(nullable = false, unique = true)
@@ -38,7 +41,9 @@ public class User implements Serializable {
     @Column(nullable = false, unique = true)
     private String token;
 
-    @Column(nullable = false)
+    // only written on insert, afterwards the PresenceService owns the status
+    // and writes changes in batches
+    @Column(nullable = false, updatable = false)
     private UserStatus status;
 
     @Column(nullable = false)
@@ -50,6 +55,27 @@ public class User implements Serializable {
     @Column
     private String birthdate;
 
+    // incremented on every update of the entity, used for the ETag of the user
+    // and as optimistic lock against concurrent updates
+    @Version
+    @Column(nullable = false)
+    private Long version;
+
+    // lower case copies of username and email, set together with them, so
+    // lookups are case-insensitive and still use a unique index; nullable
+    // because rows from before they existed are filled in by UserKeyMigration
+    @Column(unique = true)
+    private String usernameKey;
+
+    @Column(unique = true)
+    private String emailKey;
+
+    /**
+     * @return the value usernames and emails are compared and looked up by
+     */
+    public static String toKey(String value) {
+        return value == null ? null : value.toLowerCase(Locale.ROOT);
+    }
 
     //Getter and Setter
     public Long getId() {
@@ -66,6 +92,7 @@ public class User implements Serializable {
 
     public void setEmail(String email) {
         this.email = email;
+        this.emailKey = toKey(email);
     }
 
     public String getPassword() {
@@ -82,6 +109,15 @@ public class User implements Serializable {
 
     public void setUsername(String username) {
         this.username = username;
+        this.usernameKey = toKey(username);
+    }
+
+    public String getUsernameKey() {
+        return usernameKey;
+    }
+
+    public String getEmailKey() {
+        return emailKey;
     }
 
     public String getToken() {
@@ -116,6 +152,14 @@ public class User implements Serializable {
         this.birthdate = birthdate;
     }
 
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     public Date getCreationDate() {
         return creationDate;
     }
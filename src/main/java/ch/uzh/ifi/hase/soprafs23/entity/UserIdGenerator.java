@@ -0,0 +1,45 @@
+package ch.uzh.ifi.hase.soprafs23.entity;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.id.factory.spi.CustomIdGeneratorCreationContext;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.lang.reflect.Member;
+import java.util.Properties;
+
+/**
+ * User Id Generator
+ * Pooled sequence generator for ids annotated with {@link UserIdSequence}.
+ * The allocation size can be configured with the hibernate setting
+ * {@value #ALLOCATION_SIZE_SETTING} (i.e.
+ * spring.jpa.properties.soprafs23.user-id.allocation-size) instead of being
+ * fixed in the mapping. With an allocation size of n, only every n-th insert
+ * needs a sequence call. The increment of the database sequence has to match
+ * the allocation size.
+ */
+public class UserIdGenerator extends SequenceStyleGenerator {
+
+    public static final String ALLOCATION_SIZE_SETTING = "soprafs23.user-id.allocation-size";
+
+    private final UserIdSequence sequence;
+
+    public UserIdGenerator(UserIdSequence sequence, Member member, CustomIdGeneratorCreationContext context) {
+        this.sequence = sequence;
+    }
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        params.setProperty(SEQUENCE_PARAM, sequence.sequenceName());
+        params.setProperty(INCREMENT_PARAM, Integer.toString(sequence.allocationSize()));
+        params.setProperty(OPT_PARAM, "pooled");
+        Object allocationSize = serviceRegistry.getService(ConfigurationService.class)
+                .getSettings().get(ALLOCATION_SIZE_SETTING);
+        if (allocationSize != null) {
+            params.setProperty(INCREMENT_PARAM, allocationSize.toString());
+        }
+        super.configure(type, params, serviceRegistry);
+    }
+}
@@ -0,0 +1,33 @@
+package ch.uzh.ifi.hase.soprafs23.entity;
+
+import org.hibernate.annotations.IdGeneratorType;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+/**
+ * User Id Sequence
+ * Generates the annotated id with the UserIdGenerator, a pooled sequence
+ * generator. The allocation size can be overridden with the hibernate setting
+ * {@value UserIdGenerator#ALLOCATION_SIZE_SETTING}.
+ */
+@IdGeneratorType(UserIdGenerator.class)
+@Retention(RUNTIME)
+@Target({FIELD, METHOD})
+public @interface UserIdSequence {
+
+    /**
+     * The name of the database sequence.
+     */
+    String sequenceName();
+
+    /**
+     * The number of ids allocated per sequence call, has to match the
+     * increment of the database sequence.
+     */
+    int allocationSize() default 50;
+}
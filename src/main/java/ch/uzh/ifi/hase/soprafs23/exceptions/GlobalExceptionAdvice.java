@@ -1,26 +1,43 @@
 package ch.uzh.ifi.hase.soprafs23.exceptions;
 
+import ch.uzh.ifi.hase.soprafs23.datasource.ConnectionPoolGuard;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessResourceFailureException;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.transaction.TransactionSystemException;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.ErrorResponseException;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
 import org.springframework.web.servlet.mvc.method.annotation.ResponseEntityExceptionHandler;
 
-import javax.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @ControllerAdvice(annotations = RestController.class)
+@Profile("!reactive")
 public class GlobalExceptionAdvice extends ResponseEntityExceptionHandler {
 
   private final Logger log = LoggerFactory.getLogger(GlobalExceptionAdvice.class);
 
+  private final ConnectionPoolGuard connectionPoolGuard;
+
+  public GlobalExceptionAdvice(ConnectionPoolGuard connectionPoolGuard) {
+    this.connectionPoolGuard = connectionPoolGuard;
+  }
+
   @ExceptionHandler(value = { IllegalArgumentException.class, IllegalStateException.class })
   protected ResponseEntity<Object> handleConflict(RuntimeException ex, WebRequest request) {
     String bodyOfResponse = "This should be application specific";
@@ -33,6 +50,50 @@ public class GlobalExceptionAdvice extends ResponseEntityExceptionHandler {
     return new ResponseStatusException(HttpStatus.CONFLICT, ex.getMessage(), ex);
   }
 
+  /**
+   * A request that waited the whole connection timeout for a database
+   * connection gets 503 with a Retry-After header. Depending on where the
+   * connection is first needed, the timeout surfaces as
+   * CannotCreateTransactionException or as a resource failure (e.g.
+   * CannotGetJdbcConnectionException); other failures of these types are
+   * left to the default handling.
+   */
+  @ExceptionHandler({ DataAccessResourceFailureException.class, CannotCreateTransactionException.class })
+  public ResponseEntity<Object> handleConnectionTimeout(Exception ex, WebRequest request) throws Exception {
+    if (!ConnectionPoolGuard.isConnectionTimeout(ex)) {
+      throw ex;
+    }
+    log.warn("Request: {} got no database connection: {}", request.getDescription(false), ex.getMessage());
+    RetryLaterException unavailable = connectionPoolGuard.unavailable();
+    return handleExceptionInternal(unavailable, errorBody(unavailable, request), unavailable.getHeaders(),
+        unavailable.getStatusCode(), request);
+  }
+
+  /**
+   * ResponseStatusExceptions (e.g. 404, 409) keep the body of Boot's error
+   * controller ({timestamp, status, error, message, path}) that clients read
+   * the message from, instead of the ProblemDetail the base class would send.
+   */
+  @Override
+  protected ResponseEntity<Object> handleErrorResponseException(ErrorResponseException ex, HttpHeaders headers,
+      HttpStatusCode status, WebRequest request) {
+    return handleExceptionInternal(ex, errorBody(ex, request), headers, status, request);
+  }
+
+  private static Map<String, Object> errorBody(ErrorResponseException ex, WebRequest request) {
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("timestamp", new Date());
+    body.put("status", ex.getStatusCode().value());
+    HttpStatus status = HttpStatus.resolve(ex.getStatusCode().value());
+    body.put("error", status != null ? status.getReasonPhrase() : null);
+    String detail = ex.getBody().getDetail();
+    body.put("message", detail != null ? detail : "No message available");
+    if (request instanceof ServletWebRequest servletWebRequest) {
+      body.put("path", servletWebRequest.getRequest().getRequestURI());
+    }
+    return body;
+  }
+
   // Keep this one disable for all testing purposes -> it shows more detail with
   // this one disabled
   @ExceptionHandler(HttpServerErrorException.InternalServerError.class)
@@ -0,0 +1,35 @@
+package ch.uzh.ifi.hase.soprafs23.exceptions;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+
+/**
+ * A ResponseStatusException that tells the client in the Retry-After header
+ * when to try again, e.g. with 429 Too Many Requests or 503 Service
+ * Unavailable.
+ */
+public class RetryLaterException extends ResponseStatusException {
+
+  private final Duration retryAfter;
+
+  public RetryLaterException(HttpStatus status, String reason, Duration retryAfter) {
+    super(status, reason);
+    this.retryAfter = retryAfter;
+  }
+
+  public Duration getRetryAfter() {
+    return retryAfter;
+  }
+
+  @Override
+  public HttpHeaders getHeaders() {
+    HttpHeaders headers = new HttpHeaders();
+    // whole seconds, rounded up so the client does not come back too early
+    long seconds = Math.max(1, (retryAfter.toMillis() + 999) / 1000);
+    headers.set(HttpHeaders.RETRY_AFTER, String.valueOf(seconds));
+    return headers;
+  }
+}
@@ -0,0 +1,59 @@
+package ch.uzh.ifi.hase.soprafs23.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.annotation.Role;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import org.springframework.stereotype.Service;
+
+/**
+ * Metrics Configuration
+ * Times every method of the @Service classes (users.service, not in the
+ * "reactive" profile) and of the Spring Data repositories (users.repository)
+ * with a MethodTimer. Requests per endpoint are timed by Spring Boot itself
+ * (http.server.requests).
+ */
+@Configuration(proxyBeanMethods = false)
+public class MetricsConfiguration {
+
+    public static final String SERVICE_TIMER = "users.service";
+
+    public static final String REPOSITORY_TIMER = "users.repository";
+
+    /**
+     * Picked up by the same auto proxy creator that applies @Transactional,
+     * which only considers infrastructure advisors. Not used with the reactive
+     * services, whose methods return before the work is done.
+     */
+    @Bean
+    @Profile("!reactive")
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    public static Advisor serviceTimerAdvisor(ObjectProvider<MeterRegistry> registry) {
+        return new DefaultPointcutAdvisor(AnnotationMatchingPointcut.forClassAnnotation(Service.class),
+                new MethodTimer(registry, SERVICE_TIMER, null));
+    }
+
+    @Bean
+    public static BeanPostProcessor repositoryTimerPostProcessor(ObjectProvider<MeterRegistry> registry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RepositoryFactoryBeanSupport) {
+                    ((RepositoryFactoryBeanSupport<?, ?, ?>) bean).addRepositoryFactoryCustomizer(factory ->
+                            factory.addRepositoryProxyPostProcessor((proxyFactory, repositoryInformation) ->
+                                    proxyFactory.addAdvice(new MethodTimer(registry, REPOSITORY_TIMER,
+                                            repositoryInformation.getRepositoryInterface().getSimpleName()))));
+                }
+                return bean;
+            }
+        };
+    }
+}
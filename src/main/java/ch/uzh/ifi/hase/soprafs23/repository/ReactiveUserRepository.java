@@ -0,0 +1,230 @@
+package ch.uzh.ifi.hase.soprafs23.repository;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import io.r2dbc.spi.Readable;
+import org.springframework.context.annotation.Profile;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.Date;
+
+/**
+ * Non-blocking access to the USER table over R2DBC, used instead of the
+ * UserRepository in the "reactive" profile. The table is created by
+ * db/reactive-schema.sql.
+ */
+@Repository
+@Profile("reactive")
+public class ReactiveUserRepository {
+
+  private static final String COLUMNS =
+      "id, email, password, username, token, status, registration_date, creation_date, birthdate, version";
+
+  private final DatabaseClient databaseClient;
+
+  public ReactiveUserRepository(DatabaseClient databaseClient) {
+    this.databaseClient = databaseClient;
+  }
+
+  public Mono<User> findById(long id) {
+    return databaseClient.sql("select " + COLUMNS + " from \"USER\" where id = :id")
+        .bind("id", id)
+        .map(ReactiveUserRepository::toUser)
+        .one();
+  }
+
+  /**
+   * Case-insensitive, looks the username up by its lower case key.
+   */
+  public Mono<User> findByUsername(String username) {
+    return databaseClient.sql("select " + COLUMNS + " from \"USER\" where username_key = :usernameKey")
+        .bind("usernameKey", User.toKey(username))
+        .map(ReactiveUserRepository::toUser)
+        .one();
+  }
+
+  /**
+   * Users whose username starts with the prefix, ignoring case, ordered by
+   * username key. The prefix LIKE is a range scan on the username key index.
+   */
+  public Flux<User> findByUsernamePrefix(String prefix, int limit) {
+    String pattern = User.toKey(prefix).replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
+    return databaseClient.sql("select " + COLUMNS + " from \"USER\" where username_key like :pattern escape '\\' "
+            + "order by username_key limit :limit")
+        .bind("pattern", pattern)
+        .bind("limit", limit)
+        .map(ReactiveUserRepository::toUser)
+        .all();
+  }
+
+  /**
+   * @return one page of users with an id greater than after, ordered by id
+   */
+  public Flux<User> findByIdGreaterThan(long after, int limit) {
+    return databaseClient.sql("select " + COLUMNS + " from \"USER\" where id > :after order by id limit :limit")
+        .bind("after", after)
+        .bind("limit", limit)
+        .map(ReactiveUserRepository::toUser)
+        .all();
+  }
+
+  /**
+   * @return all users ordered by id, read from the database as they are requested
+   */
+  public Flux<User> findAllOrderById() {
+    return databaseClient.sql("select " + COLUMNS + " from \"USER\" order by id")
+        .map(ReactiveUserRepository::toUser)
+        .all();
+  }
+
+  public Mono<Boolean> existsByIdAndToken(long id, String token) {
+    return databaseClient.sql("select id from \"USER\" where id = :id and token = :token")
+        .bind("id", id)
+        .bind("token", token)
+        .map(row -> true)
+        .first()
+        .defaultIfEmpty(false);
+  }
+
+  public Mono<Boolean> existsByUsername(String username) {
+    return databaseClient.sql("select id from \"USER\" where username_key = :usernameKey")
+        .bind("usernameKey", User.toKey(username))
+        .map(row -> true)
+        .first()
+        .defaultIfEmpty(false);
+  }
+
+  public Mono<Boolean> existsByEmail(String email) {
+    return databaseClient.sql("select id from \"USER\" where email_key = :emailKey")
+        .bind("emailKey", User.toKey(email))
+        .map(row -> true)
+        .first()
+        .defaultIfEmpty(false);
+  }
+
+  /**
+   * Finds the users that already have one of the usernames or emails, ignoring
+   * case.
+   */
+  public Flux<UserIdentityView> findByUsernameInOrEmailIn(Collection<String> usernames, Collection<String> emails) {
+    return databaseClient.sql("select username, email from \"USER\" "
+            + "where username_key in (:usernameKeys) or email_key in (:emailKeys)")
+        .bind("usernameKeys", usernames.stream().map(User::toKey).toList())
+        .bind("emailKeys", emails.stream().map(User::toKey).toList())
+        .map(row -> (UserIdentityView) new Identity(row.get("username", String.class), row.get("email", String.class)))
+        .all();
+  }
+
+  /**
+   * Inserts the user and sets the id generated by the database.
+   */
+  public Mono<User> insert(User user) {
+    DatabaseClient.GenericExecuteSpec insert = databaseClient.sql("insert into \"USER\" "
+            + "(email, email_key, password, username, username_key, token, status, registration_date, creation_date, birthdate) "
+            + "values (:email, :emailKey, :password, :username, :usernameKey, :token, :status, :registrationDate, "
+            + ":creationDate, :birthdate)")
+        .bind("email", user.getEmail())
+        .bind("emailKey", user.getEmailKey())
+        .bind("usernameKey", user.getUsernameKey())
+        .bind("password", user.getPassword())
+        .bind("username", user.getUsername())
+        .bind("token", user.getToken())
+        .bind("status", user.getStatus().ordinal())
+        .bind("registrationDate", user.getRegistrationDate())
+        .bind("creationDate", LocalDateTime.ofInstant(user.getCreationDate().toInstant(), ZoneId.systemDefault()));
+    insert = user.getBirthdate() != null ? insert.bind("birthdate", user.getBirthdate())
+        : insert.bindNull("birthdate", String.class);
+    return insert.filter(statement -> statement.returnGeneratedValues("id"))
+        .map(row -> row.get("id", Long.class))
+        .one()
+        .map(id -> {
+          user.setId(id);
+          user.setVersion(0L);
+          return user;
+        });
+  }
+
+  /**
+   * Writes the username and birthdate of the user and increments its version,
+   * unless the version was incremented by someone else since the user was
+   * read.
+   *
+   * @return 1 if the user was written, 0 if its version changed in the meantime
+   */
+  public Mono<Long> updateProfile(User user) {
+    DatabaseClient.GenericExecuteSpec update = databaseClient.sql(
+            "update \"USER\" set username = :username, username_key = :usernameKey, birthdate = :birthdate, "
+                + "version = version + 1 where id = :id and version = :version")
+        .bind("username", user.getUsername())
+        .bind("usernameKey", user.getUsernameKey())
+        .bind("id", user.getId())
+        .bind("version", user.getVersion());
+    update = user.getBirthdate() != null ? update.bind("birthdate", user.getBirthdate())
+        : update.bindNull("birthdate", String.class);
+    return update.fetch().rowsUpdated()
+        .doOnNext(updated -> {
+          if (updated > 0) {
+            user.setVersion(user.getVersion() + 1);
+          }
+        });
+  }
+
+  public Mono<Long> updatePassword(long id, String password) {
+    return databaseClient.sql("update \"USER\" set password = :password where id = :id")
+        .bind("password", password)
+        .bind("id", id)
+        .fetch()
+        .rowsUpdated();
+  }
+
+  public Mono<Long> updateStatus(long id, UserStatus status) {
+    return databaseClient.sql("update \"USER\" set status = :status where id = :id")
+        .bind("status", status.ordinal())
+        .bind("id", id)
+        .fetch()
+        .rowsUpdated();
+  }
+
+  private static User toUser(Readable row) {
+    User user = new User();
+    user.setId(row.get("id", Long.class));
+    user.setEmail(row.get("email", String.class));
+    user.setPassword(row.get("password", String.class));
+    user.setUsername(row.get("username", String.class));
+    user.setToken(row.get("token", String.class));
+    user.setStatus(UserStatus.values()[row.get("status", Integer.class)]);
+    user.setRegistrationDate(row.get("registration_date", String.class));
+    LocalDateTime creationDate = row.get("creation_date", LocalDateTime.class);
+    user.setCreationDate(creationDate == null ? null : Date.from(creationDate.atZone(ZoneId.systemDefault()).toInstant()));
+    user.setBirthdate(row.get("birthdate", String.class));
+    user.setVersion(row.get("version", Long.class));
+    return user;
+  }
+
+  private static final class Identity implements UserIdentityView {
+
+    private final String username;
+    private final String email;
+
+    private Identity(String username, String email) {
+      this.username = username;
+      this.email = email;
+    }
+
+    @Override
+    public String getUsername() {
+      return username;
+    }
+
+    @Override
+    public String getEmail() {
+      return email;
+    }
+  }
+}
@@ -0,0 +1,25 @@
+package ch.uzh.ifi.hase.soprafs23.repository;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserField;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Queries that only select the columns of the requested fields, for partial
+ * responses. The users returned are not managed and only have the requested
+ * fields set, plus id, status and version, which are always read.
+ */
+public interface UserFieldsRepository {
+
+  /**
+   * @return at most limit users with an id greater than after, ordered by id
+   */
+  List<User> findFieldsByIdGreaterThan(Set<UserField> fields, long after, int limit);
+
+  /**
+   * @return the user with this id, null if there is none
+   */
+  User findFieldsById(Set<UserField> fields, long id);
+}
@@ -0,0 +1,75 @@
+package ch.uzh.ifi.hase.soprafs23.repository;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserField;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Selection;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * Builds the select list of the queries from the requested fields with the
+ * Criteria API; a fixed projection interface per combination of fields would
+ * not scale.
+ */
+class UserFieldsRepositoryImpl implements UserFieldsRepository {
+
+  // needed to apply the current status and to continue a page
+  private static final Set<UserField> ALWAYS_READ = EnumSet.of(UserField.ID, UserField.STATUS);
+
+  private static final String VERSION = "version";
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  @Override
+  public List<User> findFieldsByIdGreaterThan(Set<UserField> fields, long after, int limit) {
+    return query(fields, (builder, user) -> builder.gt(user.get("id"), after), limit);
+  }
+
+  @Override
+  public User findFieldsById(Set<UserField> fields, long id) {
+    List<User> users = query(fields, (builder, user) -> builder.equal(user.get("id"), id), 1);
+    return users.isEmpty() ? null : users.get(0);
+  }
+
+  private List<User> query(Set<UserField> fields, BiFunction<CriteriaBuilder, Root<User>, Predicate> where,
+                           int limit) {
+    Set<UserField> selectedFields = EnumSet.copyOf(ALWAYS_READ);
+    selectedFields.addAll(fields);
+
+    CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+    CriteriaQuery<Tuple> query = builder.createTupleQuery();
+    Root<User> user = query.from(User.class);
+    List<Selection<?>> selections = new ArrayList<>(selectedFields.size() + 1);
+    for (UserField field : selectedFields) {
+      selections.add(user.get(field.getAttribute()).alias(field.getAttribute()));
+    }
+    selections.add(user.get(VERSION).alias(VERSION));
+    query.multiselect(selections)
+        .where(where.apply(builder, user))
+        .orderBy(builder.asc(user.get("id")));
+
+    List<Tuple> rows = entityManager.createQuery(query).setMaxResults(limit).getResultList();
+    List<User> users = new ArrayList<>(rows.size());
+    for (Tuple row : rows) {
+      User partialUser = new User();
+      for (UserField field : selectedFields) {
+        field.set(partialUser, row.get(field.getAttribute()));
+      }
+      partialUser.setVersion(row.get(VERSION, Long.class));
+      users.add(partialUser);
+    }
+    return users;
+  }
+}
@@ -0,0 +1,12 @@
+package ch.uzh.ifi.hase.soprafs23.repository;
+
+/**
+ * Projection on the unique username and email columns of a User, used for
+ * uniqueness checks without loading whole entities.
+ */
+public interface UserIdentityView {
+
+  String getUsername();
+
+  String getEmail();
+}
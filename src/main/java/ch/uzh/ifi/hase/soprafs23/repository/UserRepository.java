@@ -1,14 +1,157 @@
 package ch.uzh.ifi.hase.soprafs23.repository;
 
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import jakarta.persistence.QueryHint;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
 
 @Repository("userRepository")
-public interface UserRepository extends JpaRepository<User, Long> {
-  User findByEmail(String name);
+public interface UserRepository extends JpaRepository<User, Long>, UserFieldsRepository {
+  int STREAM_FETCH_SIZE = 500;
+
+  /**
+   * Case-insensitive, looks the email up by its lower case key.
+   */
+  default User findByEmail(String email) {
+    return email == null ? null : findByEmailKey(User.toKey(email));
+  }
+
+  /**
+   * Case-insensitive, looks the username up by its lower case key.
+   */
+  default User findByUsername(String username) {
+    return username == null ? null : findByUsernameKey(User.toKey(username));
+  }
+
+  /**
+   * Same as {@link #findByUsername(String)}, but in a read-write transaction,
+   * so it is read from the primary and not from a replica that may not have
+   * the user yet (see DataSourceConfiguration).
+   */
+  @Transactional
+  default User findByUsernameOnPrimary(String username) {
+    return findByUsername(username);
+  }
+
+  User findByEmailKey(String emailKey);
 
-  User findByUsername(String username);
+  User findByUsernameKey(String usernameKey);
 
   User findById(long id);
+
+  User findByToken(String token);
+
+  /**
+   * Finds the users that already have the username or the email, ignoring
+   * case, at most two rows, in one query.
+   */
+  default List<UserIdentityView> findIdentities(String username, String email) {
+    return findIdentitiesByKeys(User.toKey(username), User.toKey(email));
+  }
+
+  @Query("select u.username as username, u.email as email from User u where u.usernameKey = :usernameKey or u.emailKey = :emailKey")
+  List<UserIdentityView> findIdentitiesByKeys(@Param("usernameKey") String usernameKey, @Param("emailKey") String emailKey);
+
+  /**
+   * Set based variant of {@link #findIdentities(String, String)} for a whole
+   * batch of new users.
+   */
+  default List<UserIdentityView> findByUsernameInOrEmailIn(Collection<String> usernames, Collection<String> emails) {
+    return findByUsernameKeyInOrEmailKeyIn(usernames.stream().map(User::toKey).toList(),
+        emails.stream().map(User::toKey).toList());
+  }
+
+  List<UserIdentityView> findByUsernameKeyInOrEmailKeyIn(Collection<String> usernameKeys, Collection<String> emailKeys);
+
+  /**
+   * Users whose username or email key is not set yet, keyset paginated on
+   * the id, for UserKeyMigration.
+   */
+  @Query("select u from User u where u.id > :id and (u.usernameKey is null or u.emailKey is null) order by u.id")
+  List<User> findWithoutKeys(@Param("id") long id, Pageable pageable);
+
+  /**
+   * Keyset pagination on the primary key: only rows after the given id are
+   * read, so the cost of a page does not depend on how deep it is. A Slice
+   * only fetches one extra row to know whether there is a next page (no count
+   * query).
+   */
+  Slice<User> findByIdGreaterThanOrderByIdAsc(long id, Pageable pageable);
+
+  /**
+   * Same page as {@link #findByIdGreaterThanOrderByIdAsc(long, Pageable)},
+   * read straight into DTOs instead of managed entities.
+   */
+  @Query("select new ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO(u.id, u.email, u.username, u.status, "
+      + "u.registrationDate, u.birthdate, u.creationDate, u.token) from User u where u.id > :id order by u.id")
+  Slice<UserGetDTO> findUserGetDTOsByIdGreaterThan(@Param("id") long id, Pageable pageable);
+
+  /**
+   * Streams all users ordered by id over an open JDBC cursor instead of
+   * loading them into a list. Has to be consumed inside a transaction and
+   * closed afterwards.
+   */
+  @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+  @Query("select u from User u order by u.id")
+  Stream<User> streamAllByOrderByIdAsc();
+
+  @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+  @Query("select u.id as id, u.token as token from User u")
+  Stream<UserTokenView> streamAllTokens();
+
+  @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+  @Query("select u.id as id, u.username as username from User u")
+  Stream<UserUsernameView> streamAllUsernames();
+
+  @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+  @Query("select u.username as username, u.email as email from User u")
+  Stream<UserIdentityView> streamAllIdentities();
+
+  @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+  @Query("select u.id from User u where u.status = :status")
+  Stream<Long> streamIdsByStatus(@Param("status") UserStatus status);
+
+  /**
+   * Writes the same status for all given users in one statement. The status
+   * column is not updatable through the entity, this is the only way to change
+   * it.
+   */
+  @Transactional
+  @Modifying
+  @Query("update User u set u.status = :status where u.id in :ids")
+  int updateStatus(@Param("status") UserStatus status, @Param("ids") Collection<Long> ids);
+
+  /**
+   * Replaces the stored password hash of one user, e.g. after it was rehashed
+   * on login. Runs in its own transaction, so the caller needs none.
+   */
+  @Transactional
+  @Modifying
+  @Query("update User u set u.password = :password where u.id = :id")
+  int updatePassword(@Param("id") long id, @Param("password") String password);
+
+  @Transactional
+  @Modifying
+  @Query("update User u set u.usernameKey = :usernameKey where u.id = :id")
+  int updateUsernameKey(@Param("id") long id, @Param("usernameKey") String usernameKey);
+
+  @Transactional
+  @Modifying
+  @Query("update User u set u.emailKey = :emailKey where u.id = :id")
+  int updateEmailKey(@Param("id") long id, @Param("emailKey") String emailKey);
 }
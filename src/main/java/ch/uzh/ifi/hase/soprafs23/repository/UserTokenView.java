@@ -0,0 +1,12 @@
+package ch.uzh.ifi.hase.soprafs23.repository;
+
+/**
+ * Projection on the id and token columns of a User, used to fill the token
+ * index without loading whole entities.
+ */
+public interface UserTokenView {
+
+  Long getId();
+
+  String getToken();
+}
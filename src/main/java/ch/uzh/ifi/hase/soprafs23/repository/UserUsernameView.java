@@ -0,0 +1,12 @@
+package ch.uzh.ifi.hase.soprafs23.repository;
+
+/**
+ * Projection on the id and username columns of a User, used to fill the
+ * username index without loading whole entities.
+ */
+public interface UserUsernameView {
+
+  Long getId();
+
+  String getUsername();
+}
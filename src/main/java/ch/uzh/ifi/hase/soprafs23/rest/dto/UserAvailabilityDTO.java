@@ -0,0 +1,23 @@
+package ch.uzh.ifi.hase.soprafs23.rest.dto;
+
+public class UserAvailabilityDTO {
+
+    private Boolean usernameAvailable;
+    private Boolean emailAvailable;
+
+    public Boolean getUsernameAvailable() {
+        return usernameAvailable;
+    }
+
+    public void setUsernameAvailable(Boolean usernameAvailable) {
+        this.usernameAvailable = usernameAvailable;
+    }
+
+    public Boolean getEmailAvailable() {
+        return emailAvailable;
+    }
+
+    public void setEmailAvailable(Boolean emailAvailable) {
+        this.emailAvailable = emailAvailable;
+    }
+}
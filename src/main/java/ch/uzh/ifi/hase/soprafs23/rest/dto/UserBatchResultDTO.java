@@ -0,0 +1,32 @@
+package ch.uzh.ifi.hase.soprafs23.rest.dto;
+
+public class UserBatchResultDTO {
+
+    private int status;
+    private String message;
+    private UserGetDTO user;
+
+    public int getStatus() {
+        return status;
+    }
+
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public UserGetDTO getUser() {
+        return user;
+    }
+
+    public void setUser(UserGetDTO user) {
+        this.user = user;
+    }
+}
@@ -0,0 +1,72 @@
+package ch.uzh.ifi.hase.soprafs23.rest.dto;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserEventType;
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+
+public class UserEventDTO {
+
+    private UserEventType type;
+    private Long id;
+    private String username;
+    private UserStatus status;
+    private Long sequence;
+
+    public UserEventDTO() {
+    }
+
+    public UserEventDTO(UserEventType type, Long id, String username, UserStatus status) {
+        this.type = type;
+        this.id = id;
+        this.username = username;
+        this.status = status;
+    }
+
+    public UserEventDTO(UserEventType type, Long id, String username, UserStatus status, Long sequence) {
+        this(type, id, username, status);
+        this.sequence = sequence;
+    }
+
+    public UserEventType getType() {
+        return type;
+    }
+
+    public void setType(UserEventType type) {
+        this.type = type;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public UserStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(UserStatus status) {
+        this.status = status;
+    }
+
+    /**
+     * @return the number of the status change of this user, increasing with
+     * every change, or null for events that are not ordered
+     */
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(Long sequence) {
+        this.sequence = sequence;
+    }
+}
@@ -16,6 +16,24 @@ public class UserGetDTO {
     private Date creationDate;
     private String token;
 
+    public UserGetDTO() {
+    }
+
+    /**
+     * Used by the UserRepository to read users straight into UserGetDTOs.
+     */
+    public UserGetDTO(Long id, String email, String username, UserStatus status, String registrationDate,
+                      String birthdate, Date creationDate, String token) {
+        this.id = id;
+        this.email = email;
+        this.username = username;
+        this.status = status;
+        this.registrationDate = registrationDate;
+        this.birthdate = birthdate;
+        this.creationDate = creationDate;
+        this.token = token;
+    }
+
 
 
 
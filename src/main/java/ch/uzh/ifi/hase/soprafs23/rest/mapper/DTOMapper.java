@@ -7,6 +7,8 @@ import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPutDTO;
 import org.mapstruct.*;
 import org.mapstruct.factory.Mappers;
 
+import java.util.List;
+
 /**
  * DTOMapper
  * This class is responsible for generating classes that will automatically
@@ -29,6 +31,8 @@ public interface DTOMapper {
     @Mapping(source = "token", target = "token")
     User convertUserPostDTOtoEntity(UserPostDTO userPostDTO);
 
+    List<User> convertUserPostDTOsToEntities(List<UserPostDTO> userPostDTOs);
+
     @Mapping(source = "id", target = "id")
     @Mapping(source = "email", target = "email")
     @Mapping(source = "username", target = "username")
@@ -0,0 +1,96 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bloom filter over strings: {@link #mightContain(String)} is false only for
+ * strings that were never put, and true for the others and for a small share
+ * (the false positive rate) of strings that were not put. Bits are set with
+ * compare-and-set, so put and mightContain can be called concurrently without
+ * locking. Strings cannot be removed.
+ */
+final class BloomFilter {
+
+    private static final double LN_2 = Math.log(2);
+
+    private final AtomicLongArray words;
+
+    private final int bitCount;
+
+    private final int hashFunctions;
+
+    private final LongAdder setBits = new LongAdder();
+
+    /**
+     * @param expectedInsertions number of strings the false positive rate is met for
+     * @param falsePositiveRate  share of never put strings that are reported as contained
+     */
+    BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        long optimalBits = (long) Math.ceil(-Math.max(expectedInsertions, 1) * Math.log(falsePositiveRate) / (LN_2 * LN_2));
+        // whole words, and the index is an int
+        this.bitCount = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, (optimalBits + 63) / 64 * 64));
+        this.words = new AtomicLongArray(bitCount / 64);
+        this.hashFunctions = Math.max(1, (int) Math.round((double) bitCount / Math.max(expectedInsertions, 1) * LN_2));
+    }
+
+    void put(String value) {
+        long hash = hash(value);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashFunctions; i++) {
+            int bit = index(hash1 + i * hash2);
+            long mask = 1L << bit;
+            long word = words.getAndAccumulate(bit >>> 6, mask, (current, add) -> current | add);
+            if ((word & mask) == 0) {
+                setBits.increment();
+            }
+        }
+    }
+
+    boolean mightContain(String value) {
+        long hash = hash(value);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashFunctions; i++) {
+            int bit = index(hash1 + i * hash2);
+            if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the current false positive rate, grows with every put
+     */
+    double expectedFalsePositiveRate() {
+        return Math.pow((double) setBits.sum() / bitCount, hashFunctions);
+    }
+
+    int bitCount() {
+        return bitCount;
+    }
+
+    private int index(int combinedHash) {
+        // the two hashes are combined as in "Less Hashing, Same Performance" (Kirsch, Mitzenmacher)
+        return (combinedHash & Integer.MAX_VALUE) % bitCount;
+    }
+
+    /**
+     * FNV-1a over the chars, finished with the MurmurHash3 mix so every input
+     * bit affects both halves of the result.
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,128 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.UserIdentityView;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Identity Filter
+ * Bloom filters over the usernames and emails of all users, filled on startup
+ * and updated whenever a user is created or renamed. If a filter does not
+ * contain a username or email, no user has it and the UserService skips the
+ * database lookup; most new usernames are free, so most uniqueness checks
+ * never reach the database. Until the filters are loaded, and for the false
+ * positives, everything "might" exist and is looked up as before. Usernames
+ * that are given up stay in the filter as false positives. The unique
+ * constraints of the USER table still reject users created concurrently or by
+ * another instance. Usernames and emails are put and checked as their lower
+ * case key (see User#toKey), like the repository compares them.
+ */
+@Component
+@Profile("!reactive")
+public class IdentityFilter implements MeterBinder {
+
+    private final Logger log = LoggerFactory.getLogger(IdentityFilter.class);
+
+    private final UserRepository userRepository;
+
+    private final BloomFilter usernames;
+
+    private final BloomFilter emails;
+
+    private volatile boolean loaded;
+
+    private final LongAdder definiteMisses = new LongAdder();
+
+    private final LongAdder possibleHits = new LongAdder();
+
+    @Autowired
+    public IdentityFilter(@Qualifier("userRepository") UserRepository userRepository,
+                          @Value("${users.identity-filter.expected-users:1000000}") long expectedUsers,
+                          @Value("${users.identity-filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.userRepository = userRepository;
+        this.usernames = new BloomFilter(expectedUsers, falsePositiveRate);
+        this.emails = new BloomFilter(expectedUsers, falsePositiveRate);
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    @Transactional(readOnly = true)
+    public void load() {
+        try (Stream<UserIdentityView> identities = userRepository.streamAllIdentities()) {
+            identities.forEach(identity -> {
+                putUsername(identity.getUsername());
+                putEmail(identity.getEmail());
+            });
+        }
+        loaded = true;
+        log.debug("Loaded the identity filter, {} bits per filter, false positive rate {}", usernames.bitCount(),
+                usernames.expectedFalsePositiveRate());
+    }
+
+    public void putUsername(String username) {
+        if (username != null) {
+            usernames.put(User.toKey(username));
+        }
+    }
+
+    public void putEmail(String email) {
+        if (email != null) {
+            emails.put(User.toKey(email));
+        }
+    }
+
+    /**
+     * @return false if no user has this username, true if one might have it
+     */
+    public boolean mightContainUsername(String username) {
+        return count(username == null || !loaded || usernames.mightContain(User.toKey(username)));
+    }
+
+    /**
+     * @return false if no user has this email, true if one might have it
+     */
+    public boolean mightContainEmail(String email) {
+        return count(email == null || !loaded || emails.mightContain(User.toKey(email)));
+    }
+
+    private boolean count(boolean mightContain) {
+        (mightContain ? possibleHits : definiteMisses).increment();
+        return mightContain;
+    }
+
+    /**
+     * Publishes how many lookups were skipped (result=miss) or had to go to the
+     * database (result=maybe), and the current false positive rate per filter.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("users.identity-filter.lookups", definiteMisses, LongAdder::sum)
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("users.identity-filter.lookups", possibleHits, LongAdder::sum)
+                .tag("result", "maybe")
+                .register(registry);
+        Gauge.builder("users.identity-filter.false-positive-rate", usernames, BloomFilter::expectedFalsePositiveRate)
+                .tag("field", "username")
+                .register(registry);
+        Gauge.builder("users.identity-filter.false-positive-rate", emails, BloomFilter::expectedFalsePositiveRate)
+                .tag("field", "email")
+                .register(registry);
+    }
+}
@@ -0,0 +1,117 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.exceptions.RetryLaterException;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Login Rate Limiter
+ * Throttles login attempts per username, against guessing the password of
+ * one user, and per client address, against one client trying many
+ * usernames. Usernames are compared ignoring case, as the login does. Both
+ * are token buckets held in memory (see TokenBuckets), so a throttled attempt
+ * is rejected with 429 before the UserService or the database see it. The
+ * number of throttled attempts is published as users.login.throttled and the
+ * number of tracked keys as users.login.rate-limit.keys, both tagged with the
+ * key type.
+ */
+@Component
+public class LoginRateLimiter implements MeterBinder {
+
+    private final boolean enabled;
+
+    private final TokenBuckets usernameBuckets;
+
+    private final TokenBuckets addressBuckets;
+
+    private final LongAdder throttledByUsername = new LongAdder();
+
+    private final LongAdder throttledByAddress = new LongAdder();
+
+    @Autowired
+    public LoginRateLimiter(@Value("${users.login.rate-limit.enabled:true}") boolean enabled,
+                            @Value("${users.login.rate-limit.username.burst:10}") int usernameBurst,
+                            @Value("${users.login.rate-limit.username.refill-interval:PT6S}")
+                            Duration usernameRefillInterval,
+                            @Value("${users.login.rate-limit.address.burst:100}") int addressBurst,
+                            @Value("${users.login.rate-limit.address.refill-interval:PT0.1S}")
+                            Duration addressRefillInterval,
+                            @Value("${users.login.rate-limit.max-keys:100000}") long maxKeys) {
+        this(enabled, usernameBurst, usernameRefillInterval, addressBurst, addressRefillInterval, maxKeys,
+                Ticker.systemTicker());
+    }
+
+    LoginRateLimiter(boolean enabled, int usernameBurst, Duration usernameRefillInterval, int addressBurst,
+                     Duration addressRefillInterval, long maxKeys, Ticker ticker) {
+        this.enabled = enabled;
+        this.usernameBuckets = new TokenBuckets(usernameBurst, usernameRefillInterval, maxKeys, ticker);
+        this.addressBuckets = new TokenBuckets(addressBurst, addressRefillInterval, maxKeys, ticker);
+    }
+
+    /**
+     * Takes one login attempt from the buckets of the client address and the
+     * username.
+     *
+     * @param username      the login is attempted for
+     * @param clientAddress the attempt comes from
+     * @throws RetryLaterException with 429 and the time until the next attempt is allowed
+     */
+    public void checkLogin(String username, String clientAddress) {
+        if (!enabled) {
+            return;
+        }
+        long waitNanos = addressBuckets.tryAcquire(String.valueOf(clientAddress));
+        if (waitNanos > 0) {
+            throttledByAddress.increment();
+            throw tooManyAttempts(waitNanos);
+        }
+        waitNanos = usernameBuckets.tryAcquire(String.valueOf(User.toKey(username)));
+        if (waitNanos > 0) {
+            throttledByUsername.increment();
+            throw tooManyAttempts(waitNanos);
+        }
+    }
+
+    private static RetryLaterException tooManyAttempts(long waitNanos) {
+        return new RetryLaterException(HttpStatus.TOO_MANY_REQUESTS, "Too many login attempts, please try again later",
+                Duration.ofNanos(waitNanos));
+    }
+
+    long getThrottledCount() {
+        return throttledByUsername.sum() + throttledByAddress.sum();
+    }
+
+    long getTrackedKeyCount() {
+        usernameBuckets.cleanUp();
+        addressBuckets.cleanUp();
+        return usernameBuckets.size() + addressBuckets.size();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        bind(registry, "username", throttledByUsername, usernameBuckets);
+        bind(registry, "address", throttledByAddress, addressBuckets);
+    }
+
+    private static void bind(MeterRegistry registry, String key, LongAdder throttled, TokenBuckets buckets) {
+        FunctionCounter.builder("users.login.throttled", throttled, LongAdder::sum)
+                .description("Login attempts rejected by the rate limit")
+                .tag("key", key)
+                .register(registry);
+        Gauge.builder("users.login.rate-limit.keys", buckets, TokenBuckets::size)
+                .description("Usernames or client addresses with a token bucket")
+                .tag("key", key)
+                .register(registry);
+    }
+}
@@ -0,0 +1,197 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import jakarta.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Password Hasher
+ * Hashes and checks passwords with bcrypt. Every hash runs 2^strength rounds,
+ * so it costs milliseconds of CPU on purpose. The hashing runs on a dedicated
+ * pool with one thread per core and a bounded queue: request threads only wait
+ * for the result, no more hashes run at once than there are cores, and once
+ * the queue is full further requests are rejected with 503 instead of queueing
+ * up behind each other. Batches ({@link #hashAll}) take up at most half of the
+ * queue, so the logins and sign-ups arriving meanwhile still find room.
+ * Passwords stored with another strength, or in plain text before hashing was
+ * introduced, are reported by {@link #needsRehash} so the services can replace
+ * them on the next successful login.
+ */
+@Component
+public class PasswordHasher implements MeterBinder {
+
+    private static final Pattern BCRYPT_HASH = Pattern.compile("\\A\\$2[aby]?\\$\\d\\d\\$[./0-9A-Za-z]{53}");
+
+    private final BCryptPasswordEncoder encoder;
+
+    private final String hashPrefix;
+
+    private final ThreadPoolExecutor executor;
+
+    // half of the queue, shared by the queued and running hashes of all batches
+    private final Semaphore batchSlots;
+
+    @Autowired
+    public PasswordHasher(@Value("${users.password.bcrypt-strength:10}") int strength,
+                          @Value("${users.password.hash-threads:0}") int threads,
+                          @Value("${users.password.queue-capacity:1000}") int queueCapacity) {
+        this.encoder = new BCryptPasswordEncoder(BCryptPasswordEncoder.BCryptVersion.$2A, strength, new SecureRandom());
+        this.hashPrefix = String.format("$2a$%02d$", strength);
+
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.batchSlots = new Semaphore(Math.max(1, queueCapacity / 2));
+    }
+
+    /**
+     * @param rawPassword as entered by the user
+     * @return completes with the hash on the hashing pool, or with a 503 if it is full
+     */
+    public CompletableFuture<String> hashAsync(String rawPassword) {
+        if (rawPassword == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return submit(() -> encoder.encode(rawPassword));
+    }
+
+    /**
+     * @param rawPassword    as entered by the user
+     * @param storedPassword hash (or legacy plain text) stored for the user
+     * @return completes with true if the password is correct
+     */
+    public CompletableFuture<Boolean> matchesAsync(String rawPassword, String storedPassword) {
+        if (rawPassword == null || storedPassword == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if (!isHash(storedPassword)) {
+            // stored before passwords were hashed, cheap enough for the calling thread
+            return CompletableFuture.completedFuture(MessageDigest.isEqual(
+                    rawPassword.getBytes(StandardCharsets.UTF_8), storedPassword.getBytes(StandardCharsets.UTF_8)));
+        }
+        return submit(() -> encoder.matches(rawPassword, storedPassword));
+    }
+
+    /**
+     * Blocking variant of {@link #hashAsync(String)}.
+     */
+    public String hash(String rawPassword) {
+        return await(hashAsync(rawPassword));
+    }
+
+    /**
+     * Hashes all passwords in parallel on the hashing pool. The next hash is
+     * only submitted while the batches have less than half of the queue. If the
+     * pool is full anyway, the hashes not started yet are cancelled.
+     *
+     * @return the hashes in the same order
+     */
+    public List<String> hashAll(List<String> rawPasswords) {
+        List<CompletableFuture<String>> hashes = new ArrayList<>(rawPasswords.size());
+        try {
+            for (String rawPassword : rawPasswords) {
+                batchSlots.acquireUninterruptibly();
+                CompletableFuture<String> hash = hashAsync(rawPassword);
+                hash.whenComplete((result, e) -> batchSlots.release());
+                hashes.add(hash);
+                if (hash.isCompletedExceptionally()) {
+                    // rejected, throws the 503
+                    await(hash);
+                }
+            }
+            List<String> results = new ArrayList<>(hashes.size());
+            for (CompletableFuture<String> hash : hashes) {
+                results.add(await(hash));
+            }
+            return results;
+        }
+        catch (RuntimeException e) {
+            // a cancelled hash that is still queued is skipped by the pool
+            hashes.forEach(hash -> hash.cancel(false));
+            throw e;
+        }
+    }
+
+    /**
+     * Blocking variant of {@link #matchesAsync(String, String)}.
+     */
+    public boolean matches(String rawPassword, String storedPassword) {
+        return await(matchesAsync(rawPassword, storedPassword));
+    }
+
+    /**
+     * @param storedPassword hash (or legacy plain text) stored for the user
+     * @return true if it was not hashed with the configured strength
+     */
+    public boolean needsRehash(String storedPassword) {
+        return !storedPassword.startsWith(hashPrefix) || !isHash(storedPassword);
+    }
+
+    private static boolean isHash(String storedPassword) {
+        return BCRYPT_HASH.matcher(storedPassword).matches();
+    }
+
+    private <T> CompletableFuture<T> submit(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, executor);
+        }
+        catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                    "Too many password checks at once, please try again later"));
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Publishes the pool size, queued and completed hashes as executor.* metrics.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        new ExecutorServiceMetrics(executor, "users.password.hasher", Tags.empty()).bindTo(registry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
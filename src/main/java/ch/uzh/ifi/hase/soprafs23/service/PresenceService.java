@@ -0,0 +1,229 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserEventType;
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserEventDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+/**
+ * Presence Service
+ * Holds the ONLINE/OFFLINE status of the users in memory. Logins and logouts
+ * only change the in-memory status; the changes are collected and written to
+ * the USER table in batches by a background task, so a status change does
+ * not cost a database transaction. Reads get the in-memory status, the status
+ * column is only the fallback for users whose status did not change since the
+ * application started.
+ * Online users have to send heartbeats; users without a heartbeat for the
+ * configured idle timeout are set OFFLINE by a single scheduled task using a
+ * timer wheel.
+ */
+@Service
+@Profile("!reactive")
+public class PresenceService {
+
+    static final int BATCH_SIZE = 500;
+
+    private final Logger log = LoggerFactory.getLogger(PresenceService.class);
+
+    private final ConcurrentMap<Long, Presence> statuses = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<Long, UserStatus> pendingWrites = new ConcurrentHashMap<>();
+
+    private final UserRepository userRepository;
+
+    private final TimeoutWheel timeoutWheel;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    public PresenceService(@Qualifier("userRepository") UserRepository userRepository,
+                           ApplicationEventPublisher eventPublisher,
+                           @Value("${users.presence.idle-timeout:PT2M}") Duration idleTimeout,
+                           @Value("${users.presence.tick:PT1S}") Duration tick) {
+        this.userRepository = userRepository;
+        this.eventPublisher = eventPublisher;
+        this.timeoutWheel = new TimeoutWheel(idleTimeout.toMillis(), tick.toMillis());
+    }
+
+    /**
+     * Starts the idle timeout of all users that are ONLINE in the database, so
+     * they do not stay ONLINE forever if they never send a heartbeat again.
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    @Transactional(readOnly = true)
+    public void load() {
+        long now = System.currentTimeMillis();
+        try (Stream<Long> userIds = userRepository.streamIdsByStatus(UserStatus.ONLINE)) {
+            userIds.forEach(userId -> timeoutWheel.schedule(userId, now));
+        }
+    }
+
+    /**
+     * Starts tracking a user that was just created with its persisted status.
+     */
+    public void track(User user) {
+        statuses.put(user.getId(), new Presence(user.getStatus(), 0));
+        if (user.getStatus() == UserStatus.ONLINE) {
+            timeoutWheel.schedule(user.getId(), System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Sets the user ONLINE (after a login or heartbeat) and restarts its idle
+     * timeout.
+     */
+    public void markOnline(long userId) {
+        timeoutWheel.schedule(userId, System.currentTimeMillis());
+        setStatus(userId, UserStatus.ONLINE);
+    }
+
+    public void markOffline(long userId) {
+        timeoutWheel.cancel(userId);
+        setStatus(userId, UserStatus.OFFLINE);
+    }
+
+    /**
+     * The status and the pending write are changed while the user's entry is
+     * locked, so concurrent changes of the same user (e.g. a heartbeat and its
+     * idle timeout) cannot leave them disagreeing. The event is published
+     * afterwards, with the number of the change, as events of concurrent
+     * changes may be delivered in either order.
+     */
+    private void setStatus(long userId, UserStatus status) {
+        setStatus(userId, status, false);
+    }
+
+    /**
+     * @param onlyIfIdle only change the status if the user's idle timeout was
+     *                   not restarted, checked while the entry is locked
+     */
+    private void setStatus(long userId, UserStatus status, boolean onlyIfIdle) {
+        boolean[] changed = {false};
+        Presence presence = statuses.compute(userId, (id, oldPresence) -> {
+            // heartbeats of online users do not cause a write
+            if (oldPresence != null && oldPresence.status == status) {
+                return oldPresence;
+            }
+            if (onlyIfIdle && timeoutWheel.isScheduled(id)) {
+                return oldPresence;
+            }
+            changed[0] = true;
+            pendingWrites.put(id, status);
+            return new Presence(status, oldPresence == null ? 1 : oldPresence.sequence + 1);
+        });
+        if (changed[0]) {
+            eventPublisher.publishEvent(new UserEventDTO(UserEventType.STATUS_CHANGED, userId, null, status,
+                    presence.sequence));
+        }
+    }
+
+    /**
+     * @return the current status of the user, the persisted one if it did not
+     * change since startup
+     */
+    public UserStatus getStatus(User user) {
+        return getStatus(user.getId(), user.getStatus());
+    }
+
+    /**
+     * @param persistedStatus the status read from the database
+     */
+    public UserStatus getStatus(long userId, UserStatus persistedStatus) {
+        Presence presence = statuses.get(userId);
+        return presence == null ? persistedStatus : presence.status;
+    }
+
+    /**
+     * Overwrites the status of the entity with the current one. The status
+     * column is not updatable, so this does not cause a write.
+     */
+    public void applyStatus(User user) {
+        user.setStatus(getStatus(user));
+    }
+
+    /**
+     * Sets all users OFFLINE whose last login or heartbeat is longer ago than
+     * the idle timeout.
+     */
+    @Scheduled(fixedRateString = "${users.presence.tick:PT1S}")
+    public void expireIdleUsers() {
+        for (Long userId : timeoutWheel.expire(System.currentTimeMillis())) {
+            expire(userId);
+        }
+    }
+
+    /**
+     * Sets a user OFFLINE whose idle timeout passed, unless a heartbeat
+     * arrived since and restarted it.
+     */
+    void expire(long userId) {
+        setStatus(userId, UserStatus.OFFLINE, true);
+    }
+
+    /**
+     * Writes all status changes since the last run, one update statement per
+     * status and batch of users.
+     */
+    @Scheduled(fixedDelayString = "${users.presence.flush-interval:PT1S}")
+    @PreDestroy
+    public void flush() {
+        Map<UserStatus, List<Long>> changes = new EnumMap<>(UserStatus.class);
+        for (Map.Entry<Long, UserStatus> change : pendingWrites.entrySet()) {
+            // only take the change if it was not overwritten in the meantime
+            if (pendingWrites.remove(change.getKey(), change.getValue())) {
+                changes.computeIfAbsent(change.getValue(), status -> new ArrayList<>()).add(change.getKey());
+            }
+        }
+
+        for (Map.Entry<UserStatus, List<Long>> change : changes.entrySet()) {
+            List<Long> userIds = change.getValue();
+            for (int from = 0; from < userIds.size(); from += BATCH_SIZE) {
+                List<Long> batch = userIds.subList(from, Math.min(from + BATCH_SIZE, userIds.size()));
+                try {
+                    userRepository.updateStatus(change.getKey(), batch);
+                }
+                catch (RuntimeException e) {
+                    log.error("Could not write the status of {} users, retrying with the next flush", batch.size(), e);
+                    // keep newer changes that arrived in the meantime
+                    batch.forEach(userId -> pendingWrites.putIfAbsent(userId, change.getKey()));
+                }
+            }
+        }
+    }
+
+    /**
+     * The current status of a user and the number of its changes.
+     */
+    private static final class Presence {
+
+        private final UserStatus status;
+
+        private final long sequence;
+
+        private Presence(UserStatus status, long sequence) {
+            this.status = status;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.ReactiveUserRepository;
+import ch.uzh.ifi.hase.soprafs23.repository.UserIdentityView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Reactive User Service
+ * Non-blocking counterpart of the UserService for the "reactive" profile. It
+ * works directly on the database through the ReactiveUserRepository and
+ * applies the same rules and error messages. Unlike the UserService it has no
+ * caches, and ONLINE/OFFLINE is written on login and logout, without the idle
+ * timeout of the PresenceService. Passwords are hashed and checked on the
+ * PasswordHasher pool, never on the event loop.
+ */
+@Service
+@Profile("reactive")
+@Transactional
+public class ReactiveUserService {
+
+    private final Logger log = LoggerFactory.getLogger(ReactiveUserService.class);
+
+    private final ReactiveUserRepository userRepository;
+
+    private final PasswordHasher passwordHasher;
+
+    private final TransactionalOperator transactionalOperator;
+
+    public ReactiveUserService(ReactiveUserRepository userRepository, PasswordHasher passwordHasher,
+                               TransactionalOperator transactionalOperator) {
+        this.userRepository = userRepository;
+        this.passwordHasher = passwordHasher;
+        this.transactionalOperator = transactionalOperator;
+    }
+
+    /**
+     * Returns one page of users ordered by id, starting after the given cursor.
+     *
+     * @see UserService#getUsers(long, int)
+     */
+    public Mono<Slice<User>> getUsers(long after, int limit) {
+        int pageSize = Math.min(Math.max(limit, 1), UserService.MAX_PAGE_SIZE);
+        // one more than needed tells whether there is a next page
+        return userRepository.findByIdGreaterThan(after, pageSize + 1)
+                .collectList()
+                .map(users -> new SliceImpl<>(users.subList(0, Math.min(users.size(), pageSize)),
+                        PageRequest.of(0, pageSize), users.size() > pageSize));
+    }
+
+    /**
+     * @return all users ordered by id, read as fast as the subscriber consumes them
+     */
+    @Transactional(readOnly = true)
+    public Flux<User> streamUsers() {
+        return userRepository.findAllOrderById();
+    }
+
+    public Mono<User> getUser(long id) {
+        return userRepository.findById(id)
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,
+                        "User with this ID does not exist")));
+    }
+
+    @Transactional(readOnly = true)
+    public Mono<Boolean> isUsernameAvailable(String username) {
+        return userRepository.existsByUsername(username).map(exists -> !exists);
+    }
+
+    @Transactional(readOnly = true)
+    public Mono<Boolean> isEmailAvailable(String email) {
+        return userRepository.existsByEmail(email).map(exists -> !exists);
+    }
+
+    /**
+     * @see UserService#searchUsers(String, int)
+     */
+    @Transactional(readOnly = true)
+    public Flux<User> searchUsers(String prefix, int limit) {
+        return Mono.fromCallable(() -> UserService.searchSize(prefix, limit))
+                .flatMapMany(size -> userRepository.findByUsernamePrefix(prefix, size));
+    }
+
+    /**
+     * Runs without a surrounding transaction, so no connection is held while
+     * the password is hashed.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Mono<User> createUser(User newUser) {
+        if (!UserService.hasRequiredFields(newUser)) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, UserService.REQUIRED_FIELDS_MESSAGE));
+        }
+        UserService.initializeNewUser(newUser);
+        return userRepository.findByUsernameInOrEmailIn(List.of(newUser.getUsername()), List.of(newUser.getEmail()))
+                .collectList()
+                .flatMap(identities -> {
+                    UserService.checkIfUnique(
+                            identities.stream().anyMatch(identity -> Objects.equals(User.toKey(identity.getUsername()), newUser.getUsernameKey())),
+                            identities.stream().anyMatch(identity -> Objects.equals(User.toKey(identity.getEmail()), newUser.getEmailKey())));
+                    return Mono.fromFuture(() -> passwordHasher.hashAsync(newUser.getPassword()));
+                })
+                .flatMap(hash -> {
+                    newUser.setPassword(hash);
+                    return userRepository.insert(newUser);
+                })
+                // created concurrently after the check above
+                .onErrorMap(DataIntegrityViolationException.class, UserService::toConflict)
+                .doOnNext(user -> log.debug("Created Information for User: {}", user));
+    }
+
+    /**
+     * Creates all users that are valid and unique, all of them or none in one
+     * transaction. The passwords are hashed before the transaction starts.
+     *
+     * @see UserService#createUsers(List)
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Mono<List<UserCreationResult>> createUsers(List<User> newUsers) {
+        return Mono.defer(() -> {
+            UserService.checkBatchSize(newUsers);
+            Set<String> usernames = new HashSet<>();
+            Set<String> emails = new HashSet<>();
+            for (User newUser : newUsers) {
+                // users without them are rejected by checkBatch, null cannot be bound
+                if (UserService.hasRequiredFields(newUser)) {
+                    usernames.add(newUser.getUsername());
+                    emails.add(newUser.getEmail());
+                }
+            }
+            // an empty batch would render "in ()"
+            return usernames.isEmpty() && emails.isEmpty() ? Mono.just(List.<UserIdentityView>of())
+                    : userRepository.findByUsernameInOrEmailIn(usernames, emails).collectList();
+        }).flatMap(taken -> {
+            List<User> usersToSave = new ArrayList<>(newUsers.size());
+            List<UserCreationResult> results = UserService.checkBatch(newUsers, taken, usersToSave);
+            return Flux.fromIterable(usersToSave)
+                    // in parallel on the hashing pool, the order of the users is kept
+                    .flatMapSequential(user -> Mono.fromFuture(() -> passwordHasher.hashAsync(user.getPassword()))
+                            .doOnNext(user::setPassword))
+                    .thenMany(Flux.fromIterable(usersToSave)
+                            .concatMap(userRepository::insert)
+                            .as(transactionalOperator::transactional))
+                    .then(Mono.just(results));
+        }).onErrorMap(DataIntegrityViolationException.class, UserService::toConflict);
+    }
+
+    /**
+     * Checks the password on the PasswordHasher pool and rehashes it if it was
+     * stored with other parameters.
+     *
+     * @see UserService#loginUser(User)
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public Mono<User> loginUser(User userInput) {
+        return userRepository.findByUsername(userInput.getUsername())
+                .switchIfEmpty(Mono.error(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                        "username not found")))
+                .flatMap(realUser -> Mono.fromFuture(() -> passwordHasher.matchesAsync(userInput.getPassword(),
+                                realUser.getPassword()))
+                        .flatMap(matches -> {
+                            //Check if the input password matches the hash stored for the username
+                            if (!matches) {
+                                return Mono.error(new ResponseStatusException(HttpStatus.UNAUTHORIZED,
+                                        "password does not match with username"));
+                            }
+                            realUser.setStatus(UserStatus.ONLINE);
+                            return rehashIfNeeded(realUser, userInput.getPassword())
+                                    .then(userRepository.updateStatus(realUser.getId(), UserStatus.ONLINE))
+                                    .thenReturn(realUser);
+                        }));
+    }
+
+    private Mono<Void> rehashIfNeeded(User user, String rawPassword) {
+        if (!passwordHasher.needsRehash(user.getPassword())) {
+            return Mono.empty();
+        }
+        return Mono.fromFuture(() -> passwordHasher.hashAsync(rawPassword))
+                .flatMap(hash -> {
+                    user.setPassword(hash);
+                    return userRepository.updatePassword(user.getId(), hash);
+                })
+                .then();
+    }
+
+    public Mono<User> updateUser(User userInput, long id) {
+        return checkAccess(userInput, id)
+                .then(getUser(id))
+                .flatMap(userFromDB -> {
+                    UserService.checkVersion(userInput, userFromDB);
+                    // a user may change the case of their own username
+                    Mono<Void> usernameCheck = Objects.equals(userInput.getUsernameKey(), userFromDB.getUsernameKey())
+                            ? Mono.empty() : checkIfUsernameExists(userInput.getUsername());
+                    userFromDB.setBirthdate(userInput.getBirthdate());
+                    userFromDB.setUsername(userInput.getUsername());
+                    return usernameCheck
+                            .then(userRepository.updateProfile(userFromDB))
+                            .flatMap(updated -> updated > 0 ? Mono.just(userFromDB)
+                                    : Mono.error(new ResponseStatusException(HttpStatus.CONFLICT,
+                                            "The user was changed concurrently, please try again")));
+                });
+    }
+
+    public Mono<User> setUserOffline(User userToken, long id) {
+        return checkAccess(userToken, id)
+                .then(getUser(id))
+                .flatMap(userOffline -> {
+                    userOffline.setStatus(UserStatus.OFFLINE);
+                    return userRepository.updateStatus(id, UserStatus.OFFLINE).thenReturn(userOffline);
+                });
+    }
+
+    /**
+     * Only checks the access, there is no idle timeout to reset in this profile.
+     */
+    @Transactional(readOnly = true)
+    public Mono<Void> heartbeat(User userToken, long id) {
+        return checkAccess(userToken, id);
+    }
+
+    private Mono<Void> checkAccess(User userInput, long id) {
+        if (userInput.getToken() == null) {
+            return Mono.error(accessDenied());
+        }
+        return userRepository.existsByIdAndToken(id, userInput.getToken())
+                .flatMap(hasAccess -> hasAccess ? Mono.<Void>empty() : Mono.error(accessDenied()));
+    }
+
+    private static ResponseStatusException accessDenied() {
+        return new ResponseStatusException(HttpStatus.UNAUTHORIZED,
+                "You have no access to change this Users Information");
+    }
+
+    private Mono<Void> checkIfUsernameExists(String username) {
+        return userRepository.findByUsername(username)
+                .flatMap(user -> Mono.error(new ResponseStatusException(HttpStatus.CONFLICT,
+                        "Username already taken")));
+    }
+}
@@ -0,0 +1,116 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Timeout Wheel
+ * Hashed timer wheel that finds the users whose timeout has passed. Every
+ * user has one deadline; scheduling it again moves the deadline and puts the
+ * user into the bucket of the new deadline. Old bucket entries are dropped
+ * when their bucket comes up, so scheduling is O(1) and each tick only looks
+ * at the users of one bucket, no matter how many users are tracked. Only one
+ * thread may call {@link #expire(long)}.
+ */
+class TimeoutWheel {
+
+    private final long timeoutMillis;
+
+    private final long tickMillis;
+
+    private final List<Set<Long>> buckets;
+
+    private final ConcurrentMap<Long, Long> deadlines = new ConcurrentHashMap<>();
+
+    private long lastTick = -1;
+
+    TimeoutWheel(long timeoutMillis, long tickMillis) {
+        this.timeoutMillis = timeoutMillis;
+        this.tickMillis = tickMillis;
+        // one revolution has to cover the whole timeout
+        int bucketCount = (int) (timeoutMillis / tickMillis) + 2;
+        this.buckets = new ArrayList<>(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            buckets.add(ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    /**
+     * (Re)starts the timeout of the user.
+     *
+     * @param userId of the user
+     * @param now current time in milliseconds
+     */
+    void schedule(long userId, long now) {
+        long deadline = now + timeoutMillis;
+        deadlines.put(userId, deadline);
+        // the first tick that starts after the deadline
+        bucketOf(deadline / tickMillis + 1).add(userId);
+    }
+
+    void cancel(long userId) {
+        deadlines.remove(userId);
+    }
+
+    /**
+     * @return whether the user has a deadline, i.e. was scheduled and has not
+     * expired or been cancelled since
+     */
+    boolean isScheduled(long userId) {
+        return deadlines.containsKey(userId);
+    }
+
+    /**
+     * Advances the wheel to the given time.
+     *
+     * @param now current time in milliseconds
+     * @return the users whose deadline passed since the last call
+     */
+    List<Long> expire(long now) {
+        long currentTick = now / tickMillis;
+        if (lastTick < 0 || currentTick - lastTick > buckets.size()) {
+            lastTick = currentTick - buckets.size();
+        }
+
+        List<Long> expired = new ArrayList<>();
+        List<Long> pending = new ArrayList<>();
+        for (long tick = lastTick + 1; tick <= currentTick; tick++) {
+            Iterator<Long> userIds = bucketOf(tick).iterator();
+            while (userIds.hasNext()) {
+                Long userId = userIds.next();
+                userIds.remove();
+                Long deadline = deadlines.get(userId);
+                if (deadline == null) {
+                    continue;
+                }
+                if (deadline <= now) {
+                    if (deadlines.remove(userId, deadline)) {
+                        expired.add(userId);
+                    }
+                }
+                else {
+                    // normally the user is already waiting in the bucket of the
+                    // later deadline, putting it there again makes sure of it
+                    pending.add(userId);
+                }
+            }
+            for (Long userId : pending) {
+                Long deadline = deadlines.get(userId);
+                if (deadline != null) {
+                    bucketOf(deadline / tickMillis + 1).add(userId);
+                }
+            }
+            pending.clear();
+        }
+        lastTick = currentTick;
+        return expired;
+    }
+
+    private Set<Long> bucketOf(long tick) {
+        return buckets.get((int) Math.floorMod(tick, (long) buckets.size()));
+    }
+}
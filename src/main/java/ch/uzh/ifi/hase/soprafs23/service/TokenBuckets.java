@@ -0,0 +1,67 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One token bucket per key: a key may take up to burst tokens at once and
+ * gets one token back per refill interval. Each bucket is a single AtomicLong
+ * holding the time at which it will be full again (the generic cell rate
+ * algorithm), updated with compare-and-set, so taking a token never locks.
+ * The buckets live in a Caffeine cache that is bounded by maxKeys and drops a
+ * bucket once it was not used for burst * refill interval; by then it would
+ * be full again, so it is no different from a new one.
+ */
+final class TokenBuckets {
+
+    private final long intervalNanos;
+
+    private final long burstNanos;
+
+    private final Ticker ticker;
+
+    private final Cache<String, AtomicLong> buckets;
+
+    TokenBuckets(int burst, Duration refillInterval, long maxKeys, Ticker ticker) {
+        this.intervalNanos = refillInterval.toNanos();
+        this.burstNanos = intervalNanos * burst;
+        this.ticker = ticker;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterAccess(Duration.ofNanos(burstNanos))
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * @param key whose bucket a token is taken from
+     * @return 0 if a token was taken, otherwise how long until the next token
+     */
+    long tryAcquire(String key) {
+        AtomicLong fullAt = buckets.get(key, k -> new AtomicLong(Long.MIN_VALUE));
+        long now = ticker.read();
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + intervalNanos;
+            long waitNanos = next - now - burstNanos;
+            if (waitNanos > 0) {
+                return waitNanos;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    long size() {
+        return buckets.estimatedSize();
+    }
+
+    void cleanUp() {
+        buckets.cleanUp();
+    }
+}
@@ -0,0 +1,104 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs23.repository.UserTokenView;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+/**
+ * Token Index
+ * Keeps the token -> user id mapping of all users in memory, so that a request
+ * can be authorized without loading the user from the database. The index is
+ * filled on startup and updated whenever a user is created or logs in. Tokens
+ * that are not in the index are looked up once in the database (e.g. users
+ * created by another instance) and added. Tokens that are not in the
+ * database either are remembered for a short time to live, so that repeated
+ * requests with an invalid token do not each query the database; a token
+ * issued by this instance is forgotten as unknown right away, one issued by
+ * another instance is accepted after the time to live at the latest.
+ */
+@Component
+@Profile("!reactive")
+public class TokenIndex {
+
+    private final Logger log = LoggerFactory.getLogger(TokenIndex.class);
+
+    private final ConcurrentMap<String, Long> userIdsByToken = new ConcurrentHashMap<>();
+
+    // tokens the database did not know, the value is unused
+    private final Cache<String, Boolean> unknownTokens;
+
+    private final UserRepository userRepository;
+
+    @Autowired
+    public TokenIndex(@Qualifier("userRepository") UserRepository userRepository,
+                      @Value("${users.token-index.unknown.max-size:10000}") long unknownMaxSize,
+                      @Value("${users.token-index.unknown.ttl:PT5S}") Duration unknownTtl) {
+        this(userRepository, unknownMaxSize, unknownTtl, Ticker.systemTicker());
+    }
+
+    TokenIndex(UserRepository userRepository, long unknownMaxSize, Duration unknownTtl, Ticker ticker) {
+        this.userRepository = userRepository;
+        this.unknownTokens = Caffeine.newBuilder()
+                .maximumSize(unknownMaxSize)
+                .expireAfterWrite(unknownTtl)
+                .ticker(ticker)
+                .build();
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    @Transactional(readOnly = true)
+    public void load() {
+        try (Stream<UserTokenView> tokens = userRepository.streamAllTokens()) {
+            tokens.forEach(token -> userIdsByToken.put(token.getToken(), token.getId()));
+        }
+        log.debug("Loaded {} tokens into the token index", userIdsByToken.size());
+    }
+
+    public void register(User user) {
+        userIdsByToken.put(user.getToken(), user.getId());
+        unknownTokens.invalidate(user.getToken());
+    }
+
+    /**
+     * @param token the token sent with the request
+     * @param userId id of the user that should be accessed
+     * @return true if the token belongs to the user with this id
+     */
+    public boolean hasAccess(String token, long userId) {
+        if (token == null || token.isEmpty()) {
+            return false;
+        }
+        Long tokenUserId = userIdsByToken.get(token);
+        if (tokenUserId == null) {
+            if (unknownTokens.getIfPresent(token) != null) {
+                return false;
+            }
+            User user = userRepository.findByToken(token);
+            if (user == null) {
+                unknownTokens.put(token, Boolean.TRUE);
+                return false;
+            }
+            register(user);
+            tokenUserId = user.getId();
+        }
+        return tokenUserId == userId;
+    }
+}
@@ -0,0 +1,141 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.function.Function;
+import java.util.function.LongFunction;
+
+/**
+ * User Cache
+ * Bounded read-through cache in front of the UserRepository lookups by id,
+ * username and email. Entries expire after the configured time to live and
+ * the least valuable entries are evicted once the maximum size is reached
+ * (W-TinyLFU). The UserService has to put or evict users whenever it writes
+ * them. Usernames and emails are cached by their lower case key (see
+ * User#toKey), like the repository looks them up. Hit, miss and eviction
+ * counters are published as cache.* metrics.
+ * <p>
+ * The cached users are never handed out: every put stores a copy and every
+ * lookup returns a new copy, so callers may change the user they get (e.g.
+ * its current status) without other requests seeing it, and a request never
+ * reads a user another one is changing.
+ */
+@Component
+@Profile("!reactive")
+public class UserCache implements MeterBinder {
+
+    private final Cache<Long, User> usersById;
+
+    private final Cache<String, User> usersByUsername;
+
+    private final Cache<String, User> usersByEmail;
+
+    @Autowired
+    public UserCache(@Value("${users.cache.max-size:10000}") long maxSize,
+                     @Value("${users.cache.ttl:10m}") Duration ttl) {
+        this.usersById = newCache(maxSize, ttl);
+        this.usersByUsername = newCache(maxSize, ttl);
+        this.usersByEmail = newCache(maxSize, ttl);
+    }
+
+    private static <K> Cache<K, User> newCache(long maxSize, Duration ttl) {
+        return Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param id of the user
+     * @param loader used if the user is not cached, may return null
+     * @return the user or null if the loader did not find one
+     */
+    public User getById(long id, LongFunction<User> loader) {
+        return copy(usersById.get(id, key -> copy(loader.apply(key))));
+    }
+
+    /**
+     * @return the cached user, null if it is not cached
+     */
+    public User getIfPresent(long id) {
+        return copy(usersById.getIfPresent(id));
+    }
+
+    public User getByUsername(String username, Function<String, User> loader) {
+        return username == null ? null : copy(usersByUsername.get(User.toKey(username), key -> copy(loader.apply(key))));
+    }
+
+    public User getByEmail(String email, Function<String, User> loader) {
+        return email == null ? null : copy(usersByEmail.get(User.toKey(email), key -> copy(loader.apply(key))));
+    }
+
+    /**
+     * Replaces the cached copies of the user after it was written.
+     */
+    public void put(User user) {
+        User cachedUser = copy(user);
+        usersById.put(cachedUser.getId(), cachedUser);
+        usersByUsername.put(cachedUser.getUsernameKey(), cachedUser);
+        usersByEmail.put(cachedUser.getEmailKey(), cachedUser);
+    }
+
+    /**
+     * Removes a username that no longer belongs to the user, e.g. after it was
+     * changed.
+     */
+    public void evictUsername(String username) {
+        if (username != null) {
+            usersByUsername.invalidate(User.toKey(username));
+        }
+    }
+
+    /**
+     * Drops all cached users, e.g. after users were deleted directly in the
+     * repository.
+     */
+    public void invalidateAll() {
+        usersById.invalidateAll();
+        usersByUsername.invalidateAll();
+        usersByEmail.invalidateAll();
+    }
+
+    /**
+     * @return a detached copy of the user, null for null
+     */
+    private static User copy(User user) {
+        if (user == null) {
+            return null;
+        }
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setEmail(user.getEmail());
+        copy.setPassword(user.getPassword());
+        copy.setUsername(user.getUsername());
+        copy.setToken(user.getToken());
+        copy.setStatus(user.getStatus());
+        copy.setRegistrationDate(user.getRegistrationDate());
+        copy.setBirthdate(user.getBirthdate());
+        copy.setVersion(user.getVersion());
+        copy.setCreationDate(user.getCreationDate() == null ? null : new Date(user.getCreationDate().getTime()));
+        return copy;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, usersById, "users.byId");
+        CaffeineCacheMetrics.monitor(registry, usersByUsername, "users.byUsername");
+        CaffeineCacheMetrics.monitor(registry, usersByEmail, "users.byEmail");
+    }
+}
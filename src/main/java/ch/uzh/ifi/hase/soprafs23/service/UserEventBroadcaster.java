@@ -0,0 +1,212 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserEventDTO;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * User Event Broadcaster
+ * Pushes the UserEvents published by the services to all Server-Sent Events
+ * subscribers once the transaction that caused them committed. Every event is
+ * serialized once and put into a bounded buffer per subscriber, which is
+ * written to the connection on a virtual thread of its own. A subscriber whose
+ * connection stalls only blocks its own thread, never a sender shared with
+ * others; once its buffer is full it is too slow and gets disconnected, so it
+ * can neither block the publishers nor the other subscribers.
+ * Events of concurrent status changes can arrive in any order; an event with
+ * an older sequence number than the last one sent for the same user is
+ * dropped, so subscribers never see a user fall back to an older status.
+ */
+@Component
+@Profile("!reactive")
+public class UserEventBroadcaster {
+
+    private final Logger log = LoggerFactory.getLogger(UserEventBroadcaster.class);
+
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentMap<Long, Long> lastSequences = new ConcurrentHashMap<>();
+
+    private final ObjectMapper objectMapper;
+
+    private final ExecutorService senders;
+
+    private final int bufferSize;
+
+    private final long timeoutMillis;
+
+    public UserEventBroadcaster(ObjectMapper objectMapper,
+                                @Value("${users.events.buffer-size:256}") int bufferSize,
+                                @Value("${users.events.timeout:PT30M}") Duration timeout) {
+        this.objectMapper = objectMapper;
+        this.bufferSize = bufferSize;
+        this.timeoutMillis = timeout.toMillis();
+        // one virtual thread per send, and at most one send per subscriber at a time
+        this.senders = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("user-events-", 1).factory());
+    }
+
+    /**
+     * @return a new subscription receiving all events from now on
+     */
+    public SseEmitter subscribe() {
+        return subscribe(new SseEmitter(timeoutMillis));
+    }
+
+    SseEmitter subscribe(SseEmitter emitter) {
+        Subscriber subscriber = new Subscriber(emitter, bufferSize);
+        emitter.onCompletion(() -> subscribers.remove(subscriber));
+        emitter.onTimeout(() -> subscribers.remove(subscriber));
+        emitter.onError(e -> subscribers.remove(subscriber));
+        subscribers.add(subscriber);
+        return emitter;
+    }
+
+    int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void publish(UserEventDTO event) {
+        if (subscribers.isEmpty()) {
+            if (event.getSequence() != null) {
+                lastSequences.merge(event.getId(), event.getSequence(), Math::max);
+            }
+            return;
+        }
+        Message message;
+        try {
+            message = new Message(event.getType().name(), objectMapper.writeValueAsString(event));
+        }
+        catch (JsonProcessingException e) {
+            log.error("Could not serialize user event {}", event.getType(), e);
+            return;
+        }
+
+        List<Subscriber> slowSubscribers = new ArrayList<>();
+        if (event.getSequence() == null) {
+            offer(message, slowSubscribers);
+        }
+        else {
+            // buffered while the user's entry is locked, so a newer event cannot overtake it
+            lastSequences.compute(event.getId(), (id, lastSequence) -> {
+                if (lastSequence != null && lastSequence >= event.getSequence()) {
+                    log.debug("Dropping outdated user event {} of user {}", event.getType(), id);
+                    return lastSequence;
+                }
+                offer(message, slowSubscribers);
+                return event.getSequence();
+            });
+        }
+        for (Subscriber subscriber : slowSubscribers) {
+            log.debug("Disconnecting slow user event subscriber");
+            disconnect(subscriber);
+        }
+    }
+
+    /**
+     * Only adds the message to the buffers, it is sent by the subscribers'
+     * own threads.
+     *
+     * @param slowSubscribers receives the subscribers whose buffer is full
+     */
+    private void offer(Message message, List<Subscriber> slowSubscribers) {
+        for (Subscriber subscriber : subscribers) {
+            if (subscriber.buffer.offer(message)) {
+                subscriber.scheduleSend();
+            }
+            else {
+                slowSubscribers.add(subscriber);
+            }
+        }
+    }
+
+    private void disconnect(Subscriber subscriber) {
+        if (subscribers.remove(subscriber)) {
+            subscriber.buffer.clear();
+            subscriber.emitter.complete();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        senders.shutdownNow();
+        subscribers.forEach(this::disconnect);
+    }
+
+    private class Subscriber {
+
+        private final SseEmitter emitter;
+
+        private final Queue<Message> buffer;
+
+        private final AtomicBoolean sending = new AtomicBoolean();
+
+        private Subscriber(SseEmitter emitter, int bufferSize) {
+            this.emitter = emitter;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        private void scheduleSend() {
+            // at most one sender per subscriber, so the events stay in order
+            if (sending.compareAndSet(false, true)) {
+                senders.execute(this::send);
+            }
+        }
+
+        private void send() {
+            try {
+                Message message;
+                while ((message = buffer.poll()) != null) {
+                    emitter.send(SseEmitter.event().name(message.name).data(message.json, MediaType.APPLICATION_JSON));
+                }
+            }
+            catch (IOException | IllegalStateException e) {
+                disconnect(this);
+            }
+            finally {
+                sending.set(false);
+            }
+            // an event may have been added after the last poll
+            if (!buffer.isEmpty() && subscribers.contains(this)) {
+                scheduleSend();
+            }
+        }
+    }
+
+    /**
+     * An event serialized once for all subscribers.
+     */
+    private static final class Message {
+
+        private final String name;
+
+        private final String json;
+
+        private Message(String name, String json) {
+            this.name = name;
+            this.json = json;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * User Key Migration
+ * Fills the username and email keys of users stored before the key columns
+ * existed, so they can be found by the case-insensitive lookups. Runs on
+ * startup in pages of {@value #PAGE_SIZE} users, each key in its own short
+ * transaction, and does nothing once all keys are set. A username or email
+ * that only differs in case from another user's cannot get its key, and its
+ * user could not log in; the migration sets all other keys and then stops the
+ * startup with the ids of these users, so they can be renamed first.
+ */
+@Component
+@Profile("!reactive")
+public class UserKeyMigration {
+
+    static final int PAGE_SIZE = 500;
+
+    private final Logger log = LoggerFactory.getLogger(UserKeyMigration.class);
+
+    private final UserRepository userRepository;
+
+    public UserKeyMigration(@Qualifier("userRepository") UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    /**
+     * @return the number of keys set
+     * @throws IllegalStateException naming the users whose key could not be set because of a duplicate
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public int migrate() {
+        int migrated = 0;
+        List<String> duplicates = new ArrayList<>();
+        long after = 0;
+        List<User> users;
+        do {
+            users = userRepository.findWithoutKeys(after, PageRequest.of(0, PAGE_SIZE));
+            for (User user : users) {
+                if (user.getUsernameKey() == null) {
+                    String key = User.toKey(user.getUsername());
+                    if (setKey(() -> userRepository.updateUsernameKey(user.getId(), key))) {
+                        migrated++;
+                    }
+                    else {
+                        duplicates.add(duplicate(user, "username", userRepository.findByUsernameKey(key)));
+                    }
+                }
+                if (user.getEmailKey() == null) {
+                    String key = User.toKey(user.getEmail());
+                    if (setKey(() -> userRepository.updateEmailKey(user.getId(), key))) {
+                        migrated++;
+                    }
+                    else {
+                        duplicates.add(duplicate(user, "email", userRepository.findByEmailKey(key)));
+                    }
+                }
+                after = user.getId();
+            }
+        } while (users.size() == PAGE_SIZE);
+
+        if (migrated > 0) {
+            log.info("Set {} username and email keys", migrated);
+        }
+        if (!duplicates.isEmpty()) {
+            throw new IllegalStateException("The keys of " + duplicates.size() + " usernames or emails could not be "
+                    + "set because they only differ in case from another user's, these users cannot log in until "
+                    + "they are renamed: " + String.join(", ", duplicates));
+        }
+        return migrated;
+    }
+
+    private static String duplicate(User user, String field, User other) {
+        return "the " + field + " of user " + user.getId()
+                + (other == null ? "" : " (the same as user " + other.getId() + ")");
+    }
+
+    private static boolean setKey(Runnable update) {
+        try {
+            update.run();
+            return true;
+        }
+        catch (DataIntegrityViolationException e) {
+            return false;
+        }
+    }
+}
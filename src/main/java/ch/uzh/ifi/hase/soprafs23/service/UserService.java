@@ -1,22 +1,42 @@
 package ch.uzh.ifi.hase.soprafs23.service;
 
+import ch.uzh.ifi.hase.soprafs23.constant.UserEventType;
+import ch.uzh.ifi.hase.soprafs23.constant.UserField;
 import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.UserIdentityView;
 import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserEventDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.server.ResponseStatusException;
 
+import jakarta.persistence.EntityManager;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * User Service
@@ -26,49 +46,295 @@ import java.util.UUID;
  * to the caller.
  */
 @Service
+@Profile("!reactive")
 @Transactional
 public class UserService {
 
+    public static final int MAX_PAGE_SIZE = 100;
+
+    public static final int MAX_BATCH_SIZE = 1000;
+
+    public static final int MAX_SEARCH_SIZE = 50;
+
+    static final String REQUIRED_FIELDS_MESSAGE = "username, email and password are required";
+
     private final Logger log = LoggerFactory.getLogger(UserService.class);
 
     private final UserRepository userRepository;
 
+    private final EntityManager entityManager;
+
+    private final TokenIndex tokenIndex;
+
+    private final UserCache userCache;
+
+    private final PresenceService presenceService;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final PasswordHasher passwordHasher;
+
+    private final IdentityFilter identityFilter;
+
+    private final UsernameIndex usernameIndex;
+
     @Autowired
-    public UserService(@Qualifier("userRepository") UserRepository userRepository) {
+    public UserService(@Qualifier("userRepository") UserRepository userRepository, EntityManager entityManager,
+                       TokenIndex tokenIndex, UserCache userCache, PresenceService presenceService,
+                       ApplicationEventPublisher eventPublisher, PasswordHasher passwordHasher,
+                       IdentityFilter identityFilter, UsernameIndex usernameIndex) {
         this.userRepository = userRepository;
+        this.entityManager = entityManager;
+        this.tokenIndex = tokenIndex;
+        this.userCache = userCache;
+        this.presenceService = presenceService;
+        this.eventPublisher = eventPublisher;
+        this.passwordHasher = passwordHasher;
+        this.identityFilter = identityFilter;
+        this.usernameIndex = usernameIndex;
+    }
+
+    /**
+     * Returns one page of users ordered by id, starting after the given cursor.
+     * The page size is capped at {@link #MAX_PAGE_SIZE} no matter what the
+     * client asks for.
+     *
+     * @param after id of the last user of the previous page (0 for the first page)
+     * @param limit requested page size
+     * @return the users of this page and whether there are more
+     */
+    @Transactional(readOnly = true)
+    public Slice<User> getUsers(long after, int limit) {
+        int pageSize = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        Slice<User> users = this.userRepository.findByIdGreaterThanOrderByIdAsc(after, PageRequest.of(0, pageSize));
+        users.forEach(presenceService::applyStatus);
+        return users;
+    }
+
+    /**
+     * Read path of the user list: the rows are read straight into UserGetDTOs
+     * in a read-only transaction, so no entities are created, no snapshots
+     * are kept for dirty checking, nothing is flushed and the DTOMapper is
+     * not needed.
+     *
+     * @see #getUsers(long, int)
+     */
+    @Transactional(readOnly = true)
+    public Slice<UserGetDTO> getUserGetDTOs(long after, int limit) {
+        int pageSize = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        Slice<UserGetDTO> users = userRepository.findUserGetDTOsByIdGreaterThan(after, PageRequest.of(0, pageSize));
+        users.forEach(user -> user.setStatus(presenceService.getStatus(user.getId(), user.getStatus())));
+        return users;
     }
 
-    public List<User> getUsers() {
-        return this.userRepository.findAll();
+    /**
+     * Like {@link #getUsers(long, int)}, but only the columns of the requested
+     * fields are read.
+     *
+     * @param fields the users are needed with
+     * @return the users of this page with only the requested fields (and id and status) set
+     */
+    @Transactional(readOnly = true)
+    public Slice<User> getUsers(long after, int limit, Set<UserField> fields) {
+        int pageSize = Math.min(Math.max(limit, 1), MAX_PAGE_SIZE);
+        // one more than needed tells whether there is a next page
+        List<User> users = userRepository.findFieldsByIdGreaterThan(fields, after, pageSize + 1);
+        users.forEach(presenceService::applyStatus);
+        return new SliceImpl<>(users.subList(0, Math.min(users.size(), pageSize)), PageRequest.of(0, pageSize),
+                users.size() > pageSize);
     }
 
+    /**
+     * Hands every user, ordered by id, to the consumer one at a time. Each user
+     * is detached once it was consumed, so the persistence context (and the
+     * heap) does not grow with the number of users.
+     *
+     * @param consumer called once per user while the database cursor is open
+     */
+    @Transactional(readOnly = true)
+    public void streamUsers(Consumer<User> consumer) {
+        try (Stream<User> users = userRepository.streamAllByOrderByIdAsc()) {
+            users.forEach(user -> {
+                presenceService.applyStatus(user);
+                consumer.accept(user);
+                entityManager.detach(user);
+            });
+        }
+    }
+
+    @Transactional(readOnly = true)
     public User getUser(long id) {
-        User user = userRepository.findById(id);
+        User user = userCache.getById(id, userRepository::findById);
 
         checkIfUserFromIdIsNull(user);
+        presenceService.applyStatus(user);
         return user;
     }
 
-    public User createUser(User newUser) {
+    /**
+     * Like {@link #getUser(long)}, but if the user is not cached only the
+     * columns of the requested fields are read, and the user is not cached.
+     *
+     * @param fields the user is needed with
+     * @return the user, with at least the requested fields set
+     */
+    @Transactional(readOnly = true)
+    public User getUser(long id, Set<UserField> fields) {
+        User user = userCache.getIfPresent(id);
+        if (user == null) {
+            user = userRepository.findFieldsById(fields, id);
+        }
 
-        String stringDate = getStringDate();
+        checkIfUserFromIdIsNull(user);
+        presenceService.applyStatus(user);
+        return user;
+    }
 
-        Date date = new Date();
+    /**
+     * Runs without a surrounding transaction, so no database connection is held
+     * while the password is hashed.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public User createUser(User newUser) {
 
-        newUser.setToken(UUID.randomUUID().toString());
-        newUser.setStatus(UserStatus.ONLINE);
-        newUser.setRegistrationDate(stringDate);
-        newUser.setCreationDate(date);
+        initializeNewUser(newUser);
         checkIfUserExists(newUser);
-        // saves the given entity but data is only persisted in the database once
-        // flush() is called
-        newUser = userRepository.save(newUser);
-        userRepository.flush();
+        newUser.setPassword(passwordHasher.hash(newUser.getPassword()));
+        // inserts the user in its own transaction
+        try {
+            newUser = userRepository.saveAndFlush(newUser);
+        }
+        catch (DataIntegrityViolationException e) {
+            // created concurrently after the check above
+            throw toConflict(e);
+        }
+        registerNewUser(newUser);
 
         log.debug("Created Information for User: {}", newUser);
         return newUser;
     }
 
+    /**
+     * Creates all users that are valid and unique. The uniqueness of the whole
+     * batch is checked with one query, for the usernames and emails that the
+     * IdentityFilter does not rule out, and the users are inserted in JDBC
+     * batches. If another request creates a conflicting user at the same time,
+     * the insert fails and none of the users are created. The passwords are
+     * hashed in parallel before the insert transaction starts.
+     *
+     * @param newUsers to be created
+     * @return one result per user, in the same order
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<UserCreationResult> createUsers(List<User> newUsers) {
+        checkBatchSize(newUsers);
+
+        Set<String> usernames = new HashSet<>();
+        Set<String> emails = new HashSet<>();
+        for (User newUser : newUsers) {
+            if (identityFilter.mightContainUsername(newUser.getUsername())) {
+                usernames.add(newUser.getUsername());
+            }
+            if (identityFilter.mightContainEmail(newUser.getEmail())) {
+                emails.add(newUser.getEmail());
+            }
+        }
+        List<? extends UserIdentityView> taken = usernames.isEmpty() && emails.isEmpty() ? List.of()
+                : userRepository.findByUsernameInOrEmailIn(usernames, emails);
+        List<User> usersToSave = new ArrayList<>(newUsers.size());
+        List<UserCreationResult> results = checkBatch(newUsers, taken, usersToSave);
+
+        List<String> passwords = new ArrayList<>(usersToSave.size());
+        for (User user : usersToSave) {
+            passwords.add(user.getPassword());
+        }
+        List<String> hashes = passwordHasher.hashAll(passwords);
+        for (int i = 0; i < usersToSave.size(); i++) {
+            usersToSave.get(i).setPassword(hashes.get(i));
+        }
+
+        try {
+            // new users are persisted as they are, so the results contain the saved users
+            userRepository.saveAllAndFlush(usersToSave);
+        }
+        catch (DataIntegrityViolationException e) {
+            throw toConflict(e);
+        }
+        usersToSave.forEach(this::registerNewUser);
+
+        log.debug("Created {} of {} users", usersToSave.size(), newUsers.size());
+        return results;
+    }
+
+    static boolean hasRequiredFields(User newUser) {
+        return newUser.getUsername() != null && newUser.getEmail() != null && newUser.getPassword() != null;
+    }
+
+    static void checkBatchSize(List<User> newUsers) {
+        if (newUsers.size() > MAX_BATCH_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    String.format("At most %d users can be created at once", MAX_BATCH_SIZE));
+        }
+    }
+
+    /**
+     * Decides which users of a batch can be created and initializes them.
+     *
+     * @param newUsers     to be created
+     * @param taken        usernames and emails of the existing users
+     * @param usersToSave  receives the users that can be created
+     * @return one result per user, in the same order
+     */
+    static List<UserCreationResult> checkBatch(List<User> newUsers, List<? extends UserIdentityView> taken,
+                                               List<User> usersToSave) {
+        Set<String> takenUsernames = new HashSet<>();
+        Set<String> takenEmails = new HashSet<>();
+        for (UserIdentityView identity : taken) {
+            takenUsernames.add(User.toKey(identity.getUsername()));
+            takenEmails.add(User.toKey(identity.getEmail()));
+        }
+
+        List<UserCreationResult> results = new ArrayList<>(newUsers.size());
+        for (User newUser : newUsers) {
+            if (!hasRequiredFields(newUser)) {
+                results.add(UserCreationResult.rejected(HttpStatus.BAD_REQUEST, REQUIRED_FIELDS_MESSAGE));
+                continue;
+            }
+            String conflict = getConflictMessage(takenUsernames.contains(newUser.getUsernameKey()),
+                    takenEmails.contains(newUser.getEmailKey()));
+            if (conflict != null) {
+                results.add(UserCreationResult.rejected(HttpStatus.CONFLICT, conflict));
+                continue;
+            }
+            // later users of this batch must not use them again
+            takenUsernames.add(newUser.getUsernameKey());
+            takenEmails.add(newUser.getEmailKey());
+
+            initializeNewUser(newUser);
+            results.add(UserCreationResult.created(newUser));
+            usersToSave.add(newUser);
+        }
+        return results;
+    }
+
+    static void initializeNewUser(User newUser) {
+        newUser.setToken(UUID.randomUUID().toString());
+        newUser.setStatus(UserStatus.ONLINE);
+        newUser.setRegistrationDate(getStringDate());
+        newUser.setCreationDate(new Date());
+    }
+
+    private void registerNewUser(User newUser) {
+        identityFilter.putUsername(newUser.getUsername());
+        identityFilter.putEmail(newUser.getEmail());
+        tokenIndex.register(newUser);
+        usernameIndex.register(newUser);
+        userCache.put(newUser);
+        presenceService.track(newUser);
+        eventPublisher.publishEvent(new UserEventDTO(UserEventType.CREATED, newUser.getId(), newUser.getUsername(),
+                newUser.getStatus()));
+    }
+
     private static String getStringDate() {
         Date date = new Date();
         SimpleDateFormat DateFor = new SimpleDateFormat("dd-MM-yyyy HH:mm:ss");
@@ -76,19 +342,28 @@ public class UserService {
     }
 
 
+    /**
+     * Checks the password on the PasswordHasher pool without a transaction, the
+     * database is only written if the stored password has to be rehashed.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public User loginUser(User userInput) {
-        User realUser = userRepository.findByUsername(userInput.getUsername());
+        User realUser = userCache.getByUsername(userInput.getUsername(),
+                // a user that just registered may not be on the replicas yet
+                userRepository::findByUsernameOnPrimary);
 
         if (realUser == null) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "username not found");
         }
 
-        //Check if the input password equals the one matching with the username
-        if (realUser.getPassword().equals(userInput.getPassword())) {
+        //Check if the input password matches the hash stored for the username
+        if (passwordHasher.matches(userInput.getPassword(), realUser.getPassword())) {
+            rehashIfNeeded(realUser, userInput.getPassword());
 
-            //Overwrite Online Status
+            //Overwrite Online Status, it is written to the database in the background
+            presenceService.markOnline(realUser.getId());
             realUser.setStatus(UserStatus.ONLINE);
-            userRepository.saveAndFlush(realUser);
+            tokenIndex.register(realUser);
 
             log.debug("Login worked {}", userInput);
             return realUser;
@@ -97,22 +372,61 @@ public class UserService {
         throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "password does not match with username");
     }
 
+    /**
+     * Replaces a password stored with other hashing parameters, or in plain
+     * text, once the user proved to know it.
+     */
+    private void rehashIfNeeded(User user, String rawPassword) {
+        if (passwordHasher.needsRehash(user.getPassword())) {
+            String hash = passwordHasher.hash(rawPassword);
+            userRepository.updatePassword(user.getId(), hash);
+            user.setPassword(hash);
+            userCache.put(user);
+        }
+    }
+
     public User updateUser(User userInput, long id) {
+        //check for access before the user is loaded
+        checkAccess(userInput, id);
 
         User userFromDB = userRepository.findById(id);
         checkIfUserFromIdIsNull(userFromDB);
+        checkVersion(userInput, userFromDB);
 
-        //check for access
-        checkAccess(userInput, userFromDB);
         //Check Username changes and Duplicates
-        if (checkIfUsernameChanged(userInput, userFromDB)){
+        String oldUsername = userFromDB.getUsername();
+        boolean usernameChanged = checkIfUsernameChanged(userInput, userFromDB);
+        // a user may change the case of their own username
+        if (usernameChanged && !Objects.equals(userInput.getUsernameKey(), userFromDB.getUsernameKey())) {
             checkIfUsernameExists(userInput);
         }
 
         //Overwrite
         userFromDB.setBirthdate(userInput.getBirthdate());
         userFromDB.setUsername(userInput.getUsername());
-        userRepository.saveAndFlush(userFromDB);
+        try {
+            // increments the version, unless it was incremented by someone else since the user was read
+            userRepository.saveAndFlush(userFromDB);
+        }
+        catch (OptimisticLockingFailureException e) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "The user was changed concurrently, please try again", e);
+        }
+        catch (DataIntegrityViolationException e) {
+            // someone else took the username since it was checked
+            throw toUsernameConflict(e);
+        }
+        if (usernameChanged) {
+            identityFilter.putUsername(userFromDB.getUsername());
+            usernameIndex.rename(oldUsername, userFromDB);
+        }
+        presenceService.applyStatus(userFromDB);
+
+        if (usernameChanged) {
+            userCache.evictUsername(oldUsername);
+            eventPublisher.publishEvent(new UserEventDTO(UserEventType.USERNAME_CHANGED, userFromDB.getId(),
+                    userFromDB.getUsername(), userFromDB.getStatus()));
+        }
+        userCache.put(userFromDB);
 
         return userFromDB;
     }
@@ -128,8 +442,29 @@ public class UserService {
     }
 
 
-    private static void checkAccess(User userInput, User userFromDB) {
-        if (!Objects.equals(userInput.getToken(), userFromDB.getToken())) {
+    /**
+     * Rejects the update if the client sent the version it last saw (e.g. in
+     * an If-Match header) and the user was updated since.
+     *
+     * @param userInput  the version the client expects, or null to skip the check
+     * @param userFromDB the current user
+     */
+    static void checkVersion(User userInput, User userFromDB) {
+        if (userInput.getVersion() != null && !userInput.getVersion().equals(userFromDB.getVersion())) {
+            throw new ResponseStatusException(HttpStatus.PRECONDITION_FAILED,
+                    "The user was changed in the meantime, please reload it");
+        }
+    }
+
+    /**
+     * Checks the token against the in-memory token index, so requests without
+     * access are rejected without touching the database.
+     *
+     * @param userInput contains the token of the request giver
+     * @param id of the user that should be changed
+     */
+    private void checkAccess(User userInput, long id) {
+        if (!tokenIndex.hasAccess(userInput.getToken(), id)) {
             throw new ResponseStatusException(HttpStatus.UNAUTHORIZED,
                     "You have no access to change this Users Information");
         }
@@ -140,27 +475,82 @@ public class UserService {
      * This is a helper method that will check the uniqueness criteria of the
      * username and the name
      * defined in the User entity. The method will do nothing if the input is unique
-     * and throw an error otherwise.
+     * and throw an error otherwise. The database is only queried if the
+     * IdentityFilter does not rule out both the username and the email.
      *
      * @param userToBeCreated
      * @throws org.springframework.web.server.ResponseStatusException
      * @see User
      */
     private void checkIfUserExists(User userToBeCreated) {
-        User userByUsername = userRepository.findByUsername(userToBeCreated.getUsername());
-        User userByEmail = userRepository.findByEmail(userToBeCreated.getEmail());
+        if (!identityFilter.mightContainUsername(userToBeCreated.getUsername())
+                && !identityFilter.mightContainEmail(userToBeCreated.getEmail())) {
+            return;
+        }
+        boolean usernameTaken = false;
+        boolean emailTaken = false;
+        for (UserIdentityView identity : userRepository.findIdentities(userToBeCreated.getUsername(),
+                userToBeCreated.getEmail())) {
+            usernameTaken |= Objects.equals(User.toKey(identity.getUsername()), userToBeCreated.getUsernameKey());
+            emailTaken |= Objects.equals(User.toKey(identity.getEmail()), userToBeCreated.getEmailKey());
+        }
+        checkIfUnique(usernameTaken, emailTaken);
+    }
 
+    static void checkIfUnique(boolean usernameTaken, boolean emailTaken) {
+        String conflict = getConflictMessage(usernameTaken, emailTaken);
+        if (conflict != null) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, conflict);
+        }
+    }
+
+    private static String getConflictMessage(boolean usernameTaken, boolean emailTaken) {
         String baseErrorMessage = "The %s provided %s not unique. Therefore, the user could not be created!";
-        if (userByUsername != null && userByEmail != null) {
-            throw new ResponseStatusException(HttpStatus.CONFLICT,
-                    String.format(baseErrorMessage, "username and the email", "are"));
+        if (usernameTaken && emailTaken) {
+            return String.format(baseErrorMessage, "username and the email", "are");
+        }
+        else if (usernameTaken) {
+            return String.format(baseErrorMessage, "username", "is");
         }
-        else if (userByUsername != null) {
-            throw new ResponseStatusException(HttpStatus.CONFLICT, String.format(baseErrorMessage, "username", "is"));
+        else if (emailTaken) {
+            return String.format(baseErrorMessage, "email", "is");
+        }
+        return null;
+    }
+
+    /**
+     * Maps a violated unique constraint of the USER table to the same error as
+     * {@link #checkIfUserExists(User)}.
+     *
+     * @param e thrown by the flush
+     * @return the conflict to throw instead, or e if it is not about the username or email
+     */
+    static RuntimeException toConflict(DataIntegrityViolationException e) {
+        String message = violation(e);
+        String conflict = getConflictMessage(message.contains("(USERNAME"), message.contains("(EMAIL"));
+        if (conflict == null) {
+            return e;
         }
-        else if (userByEmail != null) {
-            throw new ResponseStatusException(HttpStatus.CONFLICT, String.format(baseErrorMessage, "email", "is"));
+        return new ResponseStatusException(HttpStatus.CONFLICT, conflict, e);
+    }
+
+    /**
+     * Maps a violated unique constraint on the username, raised by an update,
+     * to the same error as {@link #checkIfUsernameExists(User)}.
+     *
+     * @param e thrown by the flush
+     * @return the conflict to throw instead, or e if it is not about the username
+     */
+    static RuntimeException toUsernameConflict(DataIntegrityViolationException e) {
+        if (!violation(e).contains("(USERNAME")) {
+            return e;
         }
+        return new ResponseStatusException(HttpStatus.CONFLICT, "Username already taken", e);
+    }
+
+    private static String violation(DataIntegrityViolationException e) {
+        // the databases name the violated columns like "USER(USERNAME_KEY)" or "Key (email_key)=..."
+        return String.valueOf(e.getMostSpecificCause().getMessage()).toUpperCase(Locale.ROOT);
     }
 
     private void checkIfUserFromIdIsNull(User user) {
@@ -171,6 +561,9 @@ public class UserService {
     }
 
     private void checkIfUsernameExists(User user) {
+        if (!identityFilter.mightContainUsername(user.getUsername())) {
+            return;
+        }
         User userByUsername = userRepository.findByUsername(user.getUsername());
 
         if (userByUsername != null) {
@@ -180,7 +573,10 @@ public class UserService {
     }
 
     private void checkIfEmailExists(String email) {
-        User userByUsername = userRepository.findByEmail(email);
+        if (!identityFilter.mightContainEmail(email)) {
+            return;
+        }
+        User userByUsername = userCache.getByEmail(email, userRepository::findByEmail);
 
         if (userByUsername != null) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
@@ -188,25 +584,99 @@ public class UserService {
         }
     }
 
+    /**
+     * Answered from the IdentityFilter for most free usernames, without a
+     * transaction or a database query.
+     *
+     * @param username a new user would like to have
+     * @return true if no user has it yet
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public boolean isUsernameAvailable(String username) {
+        return !identityFilter.mightContainUsername(username)
+                || userCache.getByUsername(username, userRepository::findByUsername) == null;
+    }
+
+    /**
+     * @see #isUsernameAvailable(String)
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public boolean isEmailAvailable(String email) {
+        return !identityFilter.mightContainEmail(email)
+                || userCache.getByEmail(email, userRepository::findByEmail) == null;
+    }
+
+    /**
+     * Finds the users whose username starts with the prefix, ignoring case, in
+     * the UsernameIndex. Only the users themselves are read, mostly from the
+     * UserCache.
+     *
+     * @param prefix the usernames start with
+     * @param limit  requested number of users, capped at {@link #MAX_SEARCH_SIZE}
+     * @return the matching users in alphabetical order of their usernames
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<User> searchUsers(String prefix, int limit) {
+        List<Long> ids = usernameIndex.findIdsByPrefix(prefix, searchSize(prefix, limit));
+        List<User> users = new ArrayList<>(ids.size());
+        for (long id : ids) {
+            User user = userCache.getById(id, userRepository::findById);
+            // deleted by another instance
+            if (user != null) {
+                presenceService.applyStatus(user);
+                users.add(user);
+            }
+        }
+        return users;
+    }
+
+    /**
+     * @return the number of users to search for
+     * @throws ResponseStatusException 400 if there is no prefix
+     */
+    static int searchSize(String prefix, int limit) {
+        if (prefix == null || prefix.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "prefix is required");
+        }
+        return Math.min(Math.max(limit, 1), MAX_SEARCH_SIZE);
+    }
+
+    @Transactional(readOnly = true)
     public User getUserById(long id) {
-        User userById = userRepository.findById(id);
+        User userById = userCache.getById(id, userRepository::findById);
         //check if the user even exists
         if (userById == null) {
             throw new ResponseStatusException(HttpStatus.NOT_FOUND,
                     "The user with this id does not exist!");
         }
+        presenceService.applyStatus(userById);
         return userById;
     }
 
     public User setUserOffline(User userToken, long id) {
-        User userOffline = userRepository.findById(id);
-
         //Check Access
-        checkAccess(userToken, userOffline);
+        checkAccess(userToken, id);
 
+        User userOffline = userCache.getById(id, userRepository::findById);
+        checkIfUserFromIdIsNull(userOffline);
+
+        //Overwrite Online Status, it is written to the database in the background
+        presenceService.markOffline(id);
         userOffline.setStatus(UserStatus.OFFLINE);
-        userRepository.saveAndFlush(userOffline);
 
         return userOffline;
     }
+
+    /**
+     * Keeps the user ONLINE. Only the token index and the in-memory presence
+     * are used, so no database transaction is needed.
+     *
+     * @param userToken contains the token of the request giver
+     * @param id of the user sending the heartbeat
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void heartbeat(User userToken, long id) {
+        checkAccess(userToken, id);
+        presenceService.markOnline(id);
+    }
 }
@@ -0,0 +1,109 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs23.repository.UserUsernameView;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Username Index
+ * Keeps the usernames of all users sorted in memory (a concurrent skip list
+ * from the lower case username key to the user id), so the users whose
+ * username starts with a prefix are found in O(log n + k) without a database
+ * query. The index is filled on startup and updated whenever a user is
+ * created or renamed. Users created or renamed by another instance are only
+ * seen after a restart.
+ */
+@Component
+@Profile("!reactive")
+public class UsernameIndex implements MeterBinder {
+
+    private final Logger log = LoggerFactory.getLogger(UsernameIndex.class);
+
+    private final ConcurrentNavigableMap<String, Long> userIdsByUsername = new ConcurrentSkipListMap<>();
+
+    // the size of a skip list is counted by walking it
+    private final LongAdder size = new LongAdder();
+
+    private final UserRepository userRepository;
+
+    public UsernameIndex(@Qualifier("userRepository") UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    @Transactional(readOnly = true)
+    public void load() {
+        try (Stream<UserUsernameView> usernames = userRepository.streamAllUsernames()) {
+            usernames.forEach(username -> put(username.getUsername(), username.getId()));
+        }
+        log.debug("Loaded {} usernames into the username index", size.sum());
+    }
+
+    public void register(User user) {
+        put(user.getUsername(), user.getId());
+    }
+
+    /**
+     * Moves the user from its old username to its current one.
+     */
+    public void rename(String oldUsername, User user) {
+        String oldKey = User.toKey(oldUsername);
+        if (oldKey != null && !oldKey.equals(user.getUsernameKey())) {
+            if (userIdsByUsername.remove(oldKey, user.getId())) {
+                size.decrement();
+            }
+        }
+        register(user);
+    }
+
+    private void put(String username, Long id) {
+        if (username != null && id != null) {
+            if (userIdsByUsername.put(User.toKey(username), id) == null) {
+                size.increment();
+            }
+        }
+    }
+
+    /**
+     * @param prefix the usernames start with, ignoring case
+     * @param limit  maximum number of ids to return
+     * @return the ids of the users with the first matching usernames in alphabetical order
+     */
+    public List<Long> findIdsByPrefix(String prefix, int limit) {
+        String key = User.toKey(prefix);
+        List<Long> ids = new ArrayList<>(Math.min(limit, 16));
+        for (Map.Entry<String, Long> entry : userIdsByUsername.tailMap(key).entrySet()) {
+            if (ids.size() == limit || !entry.getKey().startsWith(key)) {
+                break;
+            }
+            ids.add(entry.getValue());
+        }
+        return ids;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("users.username-index.size", size, LongAdder::sum)
+                .description("Usernames in the in-memory prefix index")
+                .register(registry);
+    }
+}
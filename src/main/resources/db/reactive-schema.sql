@@ -0,0 +1,24 @@
+-- USER table of the "reactive" profile, same columns as the User entity
+CREATE TABLE IF NOT EXISTS "USER" (
+    id                BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    email             VARCHAR(255) NOT NULL UNIQUE,
+    password          VARCHAR(255) NOT NULL,
+    username          VARCHAR(255) NOT NULL UNIQUE,
+    token             VARCHAR(255) NOT NULL UNIQUE,
+    status            INTEGER      NOT NULL,
+    registration_date VARCHAR(255) NOT NULL,
+    creation_date     TIMESTAMP    NOT NULL,
+    birthdate         VARCHAR(255)
+);
+
+-- lower case copies of username and email for case-insensitive lookups, filled
+-- for rows from before they existed (same as UserKeyMigration in the servlet stack)
+ALTER TABLE "USER" ADD COLUMN IF NOT EXISTS username_key VARCHAR(255);
+ALTER TABLE "USER" ADD COLUMN IF NOT EXISTS email_key VARCHAR(255);
+UPDATE "USER" SET username_key = LOWER(username) WHERE username_key IS NULL;
+UPDATE "USER" SET email_key = LOWER(email) WHERE email_key IS NULL;
+CREATE UNIQUE INDEX IF NOT EXISTS user_username_key ON "USER" (username_key);
+CREATE UNIQUE INDEX IF NOT EXISTS user_email_key ON "USER" (email_key);
+
+-- incremented on every profile update, for ETags and optimistic locking
+ALTER TABLE "USER" ADD COLUMN IF NOT EXISTS version BIGINT DEFAULT 0 NOT NULL;
@@ -0,0 +1,506 @@
+package ch.uzh.ifi.hase.soprafs23.controller;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.exceptions.RetryLaterException;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs23.service.LoginRateLimiter;
+import ch.uzh.ifi.hase.soprafs23.service.UserCreationResult;
+import ch.uzh.ifi.hase.soprafs23.service.UserService;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * AbstractUserControllerTest
+ * The request and response cases both user controllers have to pass, so the
+ * UserController and the ReactiveUserController of the "reactive" profile are
+ * held to the same API contract. The subclasses send the requests through
+ * their WebTestClient and stub their own service.
+ */
+public abstract class AbstractUserControllerTest {
+
+    @MockBean
+    protected LoginRateLimiter loginRateLimiter;
+
+    protected abstract WebTestClient webTestClient();
+
+    protected abstract void givenUsers(long after, int limit, Slice<User> users);
+
+    /**
+     * Stubs the user with and without selected fields.
+     */
+    protected abstract void givenUser(long id, User user);
+
+    protected abstract void givenGetUserFails(ResponseStatusException e);
+
+    protected abstract void givenCreatedUser(User user);
+
+    protected abstract void givenCreateUserFails(ResponseStatusException e);
+
+    protected abstract void givenCreatedUsers(List<UserCreationResult> results);
+
+    protected abstract void givenUpdatedUser(User user);
+
+    protected abstract void givenUpdateUserFails(ResponseStatusException e);
+
+    protected abstract void givenAvailability(String username, boolean usernameAvailable, String email,
+                                              boolean emailAvailable);
+
+    protected abstract void givenSearchResult(String prefix, int limit, List<User> users);
+
+    protected abstract void givenLoggedInUser(User user);
+
+    protected abstract void givenLoginFails(ResponseStatusException e);
+
+    protected abstract void givenOfflineUser(User user);
+
+    protected abstract void givenHeartbeat();
+
+    protected abstract void givenHeartbeatFails(ResponseStatusException e);
+
+    protected abstract void verifyHeartbeat(long id);
+
+    protected abstract void verifyNoLogin();
+
+    @Test
+    public void givenUsers_whenGetUsers_thenReturnJsonArray() {
+        // given
+        User user = new User();
+        user.setEmail("Email");
+        user.setUsername("Username");
+        user.setStatus(UserStatus.ONLINE);
+
+        givenUsers(0L, UserService.MAX_PAGE_SIZE, new SliceImpl<>(Collections.singletonList(user)));
+
+        // when/then
+        webTestClient().get().uri("/users").accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist("X-Next-Cursor")
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].email").isEqualTo(user.getEmail())
+                .jsonPath("$[0].username").isEqualTo(user.getUsername())
+                .jsonPath("$[0].status").isEqualTo(user.getStatus().toString());
+    }
+
+    @Test
+    public void givenMoreUsers_whenGetUsersPage_thenReturnNextCursor() {
+        // given
+        User user = new User();
+        user.setId(7L);
+        user.setEmail("Email");
+        user.setUsername("Username");
+        user.setStatus(UserStatus.ONLINE);
+
+        givenUsers(5L, 1, new SliceImpl<>(Collections.singletonList(user), PageRequest.of(0, 1), true));
+
+        // when/then
+        webTestClient().get().uri("/users?limit=1&after=5").accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("X-Next-Cursor", "7")
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].id").isEqualTo(7);
+    }
+
+    @Test
+    public void getAllUsers_ifNoneMatch_notModifiedUntilPageChanges() {
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("testUsername");
+        user.setStatus(UserStatus.ONLINE);
+        givenUsers(0L, 10, new SliceImpl<>(List.of(user)));
+
+        String eTag = webTestClient().get().uri("/users?limit=10")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(String.class).getResponseHeaders().getETag();
+        webTestClient().get().uri("/users?limit=10").header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+
+        // the ETag is derived from the page that was read, e.g. from a replica
+        user.setStatus(UserStatus.OFFLINE);
+        givenUsers(0L, 10, new SliceImpl<>(List.of(user)));
+        webTestClient().get().uri("/users?limit=10").header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$[0].status").isEqualTo("OFFLINE");
+        // as is the cursor of the next page
+        givenUsers(0L, 10, new SliceImpl<>(List.of(user), PageRequest.of(0, 1), true));
+        String nextPageETag = webTestClient().get().uri("/users?limit=10")
+                .exchange()
+                .returnResult(String.class).getResponseHeaders().getETag();
+        webTestClient().get().uri("/users?limit=10").header(HttpHeaders.IF_NONE_MATCH, nextPageETag)
+                .exchange()
+                .expectStatus().isNotModified();
+        givenUsers(0L, 10, new SliceImpl<>(List.of(user)));
+        webTestClient().get().uri("/users?limit=10").header(HttpHeaders.IF_NONE_MATCH, nextPageETag)
+                .exchange()
+                .expectStatus().isOk();
+    }
+
+    @Test
+    public void givenUser_whenGetUser_thenReturnUser() {
+        //Given
+        User user = new User();
+        user.setId(1L);
+        user.setEmail("Email");
+        user.setUsername("testUsername");
+        user.setToken("1");
+        user.setStatus(UserStatus.ONLINE);
+        user.setPassword("1234");
+
+        givenUser(1L, user);
+
+        // when/then
+        webTestClient().get().uri("/users/1").accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.email").isEqualTo(user.getEmail())
+                .jsonPath("$.username").isEqualTo(user.getUsername())
+                .jsonPath("$.status").isEqualTo(user.getStatus().toString());
+    }
+
+    @Test
+    public void UserDoesNotExist_whenGetUser_Error() {
+        givenGetUserFails(new ResponseStatusException(HttpStatus.NOT_FOUND,
+                String.format("No user found with Id %d", 1000)));
+
+        // when/then
+        webTestClient().get().uri("/users/1").accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    public void getUser_fields_onlySelectedFields() {
+        User user = new User();
+        user.setId(1L);
+        user.setEmail("Email");
+        user.setUsername("testUsername");
+        user.setStatus(UserStatus.ONLINE);
+        givenUser(1L, user);
+
+        webTestClient().get().uri("/users/1?fields=id,username")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.username").isEqualTo("testUsername")
+                .jsonPath("$.email").doesNotExist();
+    }
+
+    @Test
+    public void createUser_validInput_userCreated() {
+        // given
+        User user = new User();
+        user.setId(1L);
+        user.setEmail("Email");
+        user.setUsername("testUsername");
+        user.setToken("1");
+        user.setStatus(UserStatus.ONLINE);
+        user.setPassword("1234");
+
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setEmail("Test User");
+        userPostDTO.setUsername("testUsername");
+        userPostDTO.setPassword("1234");
+
+        givenCreatedUser(user);
+
+        // when/then
+        webTestClient().post().uri("/users").contentType(MediaType.APPLICATION_JSON).bodyValue(userPostDTO)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectBody()
+                .jsonPath("$.id").isEqualTo(user.getId().intValue())
+                .jsonPath("$.username").isEqualTo(user.getUsername())
+                .jsonPath("$.status").isEqualTo(user.getStatus().toString());
+    }
+
+    @Test
+    public void createUser_invalidInput_userNotCreated() {
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setEmail("Test User");
+        userPostDTO.setUsername("testUsername");
+        userPostDTO.setPassword("1234");
+
+        givenCreateUserFails(new ResponseStatusException(HttpStatus.CONFLICT,
+                String.format("No user found with Id %d", 1000)));
+
+        // when/then
+        webTestClient().post().uri("/users").contentType(MediaType.APPLICATION_JSON).bodyValue(userPostDTO)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CONFLICT);
+    }
+
+    @Test
+    public void createUsers_batch_resultPerUser() {
+        // given
+        User user = new User();
+        user.setId(1L);
+        user.setEmail("Email");
+        user.setUsername("testUsername");
+        user.setToken("1");
+        user.setStatus(UserStatus.ONLINE);
+
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setEmail("Email");
+        userPostDTO.setUsername("testUsername");
+        userPostDTO.setPassword("1234");
+
+        givenCreatedUsers(List.of(
+                UserCreationResult.created(user),
+                UserCreationResult.rejected(HttpStatus.CONFLICT, "username taken")));
+
+        // when/then
+        webTestClient().post().uri("/users/batch").contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(List.of(userPostDTO, userPostDTO))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(2)
+                .jsonPath("$[0].status").isEqualTo(201)
+                .jsonPath("$[0].user.username").isEqualTo(user.getUsername())
+                .jsonPath("$[1].status").isEqualTo(409)
+                .jsonPath("$[1].message").isEqualTo("username taken");
+    }
+
+    @Test
+    public void updateUser_validInput() {
+        // given
+        User user = new User();
+        user.setId(1L);
+        user.setPassword("password123");
+        user.setUsername("updateUsername");
+        user.setEmail("Email");
+        user.setBirthdate("20-20-2022");
+        user.setToken("555");
+
+        givenUpdatedUser(user);
+
+        // when/then
+        webTestClient().put().uri("/users/1").contentType(MediaType.APPLICATION_JSON).bodyValue(updateInput())
+                .exchange()
+                .expectStatus().isNoContent()
+                .expectBody()
+                .jsonPath("$.birthdate").isEqualTo(user.getBirthdate())
+                .jsonPath("$.username").isEqualTo(user.getUsername());
+    }
+
+    @Test
+    public void updateUser_IdDoesNotExist() {
+        givenUpdateUserFails(new ResponseStatusException(HttpStatus.NOT_FOUND, "STRING"));
+
+        // when/then
+        webTestClient().put().uri("/users/1").contentType(MediaType.APPLICATION_JSON).bodyValue(updateInput())
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    public void updateUser_unauthorized() {
+        givenUpdateUserFails(new ResponseStatusException(HttpStatus.UNAUTHORIZED, "STRING"));
+
+        // when/then
+        webTestClient().put().uri("/users/1").contentType(MediaType.APPLICATION_JSON).bodyValue(updateInput())
+                .exchange()
+                .expectStatus().isUnauthorized();
+    }
+
+    @Test
+    public void updateUser_usernameTaken() {
+        givenUpdateUserFails(new ResponseStatusException(HttpStatus.CONFLICT, "STRING"));
+
+        // when/then
+        webTestClient().put().uri("/users/1").contentType(MediaType.APPLICATION_JSON).bodyValue(updateInput())
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.CONFLICT);
+    }
+
+    @Test
+    public void updateUser_weakIfMatch_preconditionFailed() {
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("updateUsername");
+        user.setToken("555");
+
+        givenUpdatedUser(user);
+
+        // If-Match uses the strong comparison, a weak ETag never matches
+        webTestClient().put().uri("/users/1").contentType(MediaType.APPLICATION_JSON)
+                .header(HttpHeaders.IF_MATCH, "W/\"3-ONLINE\"")
+                .bodyValue(updateInput())
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+    }
+
+    @Test
+    public void getAvailability_usernameAndEmail() {
+        givenAvailability("testUsername", true, "Email", false);
+
+        webTestClient().get().uri("/users/availability?username=testUsername&email=Email")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.usernameAvailable").isEqualTo(true)
+                .jsonPath("$.emailAvailable").isEqualTo(false);
+
+        webTestClient().get().uri("/users/availability")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void searchUsers_byPrefix() {
+        User user = new User();
+        user.setId(1L);
+        user.setEmail("Email");
+        user.setUsername("testUsername");
+        user.setStatus(UserStatus.ONLINE);
+        givenSearchResult("test", 5, List.of(user));
+
+        webTestClient().get().uri("/users/search?prefix=test&limit=5")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.length()").isEqualTo(1)
+                .jsonPath("$[0].username").isEqualTo(user.getUsername());
+    }
+
+    @Test
+    public void successful_login() {
+        //Given
+        User user = new User();
+        user.setId(1L);
+        user.setEmail("Email");
+        user.setUsername("testUsername");
+        user.setToken("1");
+        user.setStatus(UserStatus.ONLINE);
+        user.setPassword("1234");
+
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("testUsername");
+        userPostDTO.setPassword("1234");
+
+        givenLoggedInUser(user);
+
+        // when/then
+        webTestClient().post().uri("/login").contentType(MediaType.APPLICATION_JSON).bodyValue(userPostDTO)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.id").isEqualTo(user.getId().intValue())
+                .jsonPath("$.username").isEqualTo(user.getUsername())
+                .jsonPath("$.status").isEqualTo(user.getStatus().toString());
+    }
+
+    @Test
+    public void unsuccessful_login() {
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("testUsername");
+        userPostDTO.setPassword("testPassword");
+
+        givenLoginFails(new ResponseStatusException(HttpStatus.BAD_REQUEST, "STRING"));
+
+        // when/then
+        webTestClient().post().uri("/login").contentType(MediaType.APPLICATION_JSON).bodyValue(userPostDTO)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void throttled_login() {
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("testUsername");
+        userPostDTO.setPassword("testPassword");
+
+        Mockito.doThrow(new RetryLaterException(HttpStatus.TOO_MANY_REQUESTS, "STRING", Duration.ofMillis(1500)))
+                .when(loginRateLimiter).checkLogin(Mockito.eq("testUsername"), Mockito.any());
+
+        // when/then -> rejected before the service is called
+        webTestClient().post().uri("/login").contentType(MediaType.APPLICATION_JSON).bodyValue(userPostDTO)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.TOO_MANY_REQUESTS)
+                .expectHeader().valueEquals("Retry-After", "2");
+        verifyNoLogin();
+    }
+
+    @Test
+    public void successful_SetUserOffline() {
+        //Given
+        User user = new User();
+        user.setId(1L);
+        user.setEmail("Email");
+        user.setUsername("testUsername");
+        user.setToken("555");
+        user.setStatus(UserStatus.OFFLINE);
+        user.setPassword("1234");
+
+        givenOfflineUser(user);
+
+        UserPutDTO userPutDTO = new UserPutDTO();
+        userPutDTO.setToken("555");
+
+        // when/then
+        webTestClient().put().uri("/users/offline/1").contentType(MediaType.APPLICATION_JSON).bodyValue(userPutDTO)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.status").isEqualTo(user.getStatus().toString());
+    }
+
+    @Test
+    public void successful_heartbeat() {
+        UserPutDTO userPutDTO = new UserPutDTO();
+        userPutDTO.setToken("555");
+
+        givenHeartbeat();
+
+        // when/then
+        webTestClient().put().uri("/users/1/heartbeat").contentType(MediaType.APPLICATION_JSON).bodyValue(userPutDTO)
+                .exchange()
+                .expectStatus().isNoContent();
+        verifyHeartbeat(1L);
+    }
+
+    @Test
+    public void heartbeat_unauthorized() {
+        UserPutDTO userPutDTO = new UserPutDTO();
+        userPutDTO.setToken("wrongToken");
+
+        givenHeartbeatFails(new ResponseStatusException(HttpStatus.UNAUTHORIZED, "STRING"));
+
+        // when/then
+        webTestClient().put().uri("/users/1/heartbeat").contentType(MediaType.APPLICATION_JSON).bodyValue(userPutDTO)
+                .exchange()
+                .expectStatus().isUnauthorized();
+    }
+
+    private static UserPutDTO updateInput() {
+        UserPutDTO userPutDTO = new UserPutDTO();
+        userPutDTO.setUsername("updateUsername");
+        userPutDTO.setBirthdate("20-20-2022");
+        userPutDTO.setToken("555");
+        return userPutDTO;
+    }
+}
@@ -0,0 +1,159 @@
+package ch.uzh.ifi.hase.soprafs23.controller;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.service.ReactiveUserService;
+import ch.uzh.ifi.hase.soprafs23.service.UserCreationResult;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.BDDMockito.given;
+
+/**
+ * ReactiveUserControllerTest
+ * Runs the cases of the AbstractUserControllerTest against the
+ * ReactiveUserController of the "reactive" profile.
+ */
+@WebFluxTest(ReactiveUserController.class)
+@ActiveProfiles("reactive")
+public class ReactiveUserControllerTest extends AbstractUserControllerTest {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @MockBean
+    private ReactiveUserService userService;
+
+    @Override
+    protected WebTestClient webTestClient() {
+        return webTestClient;
+    }
+
+    @Override
+    protected void givenUsers(long after, int limit, Slice<User> users) {
+        given(userService.getUsers(after, limit)).willReturn(Mono.just(users));
+    }
+
+    @Override
+    protected void givenUser(long id, User user) {
+        given(userService.getUser(id)).willReturn(Mono.just(user));
+    }
+
+    @Override
+    protected void givenGetUserFails(ResponseStatusException e) {
+        given(userService.getUser(Mockito.anyLong())).willReturn(Mono.error(e));
+    }
+
+    @Override
+    protected void givenCreatedUser(User user) {
+        given(userService.createUser(Mockito.any())).willReturn(Mono.just(user));
+    }
+
+    @Override
+    protected void givenCreateUserFails(ResponseStatusException e) {
+        given(userService.createUser(Mockito.any())).willReturn(Mono.error(e));
+    }
+
+    @Override
+    protected void givenCreatedUsers(List<UserCreationResult> results) {
+        given(userService.createUsers(Mockito.any())).willReturn(Mono.just(results));
+    }
+
+    @Override
+    protected void givenUpdatedUser(User user) {
+        given(userService.updateUser(Mockito.any(), Mockito.anyLong())).willReturn(Mono.just(user));
+    }
+
+    @Override
+    protected void givenUpdateUserFails(ResponseStatusException e) {
+        given(userService.updateUser(Mockito.any(), Mockito.anyLong())).willReturn(Mono.error(e));
+    }
+
+    @Override
+    protected void givenAvailability(String username, boolean usernameAvailable, String email, boolean emailAvailable) {
+        given(userService.isUsernameAvailable(username)).willReturn(Mono.just(usernameAvailable));
+        given(userService.isEmailAvailable(email)).willReturn(Mono.just(emailAvailable));
+    }
+
+    @Override
+    protected void givenSearchResult(String prefix, int limit, List<User> users) {
+        given(userService.searchUsers(prefix, limit)).willReturn(Flux.fromIterable(users));
+    }
+
+    @Override
+    protected void givenLoggedInUser(User user) {
+        given(userService.loginUser(Mockito.any())).willReturn(Mono.just(user));
+    }
+
+    @Override
+    protected void givenLoginFails(ResponseStatusException e) {
+        given(userService.loginUser(Mockito.any())).willReturn(Mono.error(e));
+    }
+
+    @Override
+    protected void givenOfflineUser(User user) {
+        given(userService.setUserOffline(Mockito.any(), Mockito.anyLong())).willReturn(Mono.just(user));
+    }
+
+    @Override
+    protected void givenHeartbeat() {
+        given(userService.heartbeat(Mockito.any(), Mockito.anyLong())).willReturn(Mono.empty());
+    }
+
+    @Override
+    protected void givenHeartbeatFails(ResponseStatusException e) {
+        given(userService.heartbeat(Mockito.any(), Mockito.anyLong())).willReturn(Mono.error(e));
+    }
+
+    @Override
+    protected void verifyHeartbeat(long id) {
+        Mockito.verify(userService).heartbeat(Mockito.any(), Mockito.eq(id));
+    }
+
+    @Override
+    protected void verifyNoLogin() {
+        Mockito.verify(userService, Mockito.never()).loginUser(Mockito.any());
+    }
+
+    @Test
+    public void givenUsers_whenStreamUsers_thenReturnNdjson() throws Exception {
+        // given
+        User first = new User();
+        first.setId(1L);
+        first.setUsername("first");
+        first.setStatus(UserStatus.ONLINE);
+        User second = new User();
+        second.setId(2L);
+        second.setUsername("second");
+        second.setStatus(UserStatus.OFFLINE);
+
+        given(userService.streamUsers()).willReturn(Flux.just(first, second));
+
+        // when
+        String body = webTestClient.get().uri("/users/stream").accept(MediaType.APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_NDJSON)
+                .expectBody(String.class).returnResult().getResponseBody();
+
+        // then
+        String[] lines = body.split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("first", new ObjectMapper().readTree(lines[0]).get("username").asText());
+        assertEquals("second", new ObjectMapper().readTree(lines[1]).get("username").asText());
+    }
+}
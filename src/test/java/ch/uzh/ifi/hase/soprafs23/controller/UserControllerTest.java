@@ -1,9 +1,13 @@
 package ch.uzh.ifi.hase.soprafs23.controller;
 
+import ch.uzh.ifi.hase.soprafs23.constant.UserField;
 import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.datasource.ConnectionPoolGuard;
 import ch.uzh.ifi.hase.soprafs23.entity.User;
-import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPostDTO;
+import ch.uzh.ifi.hase.soprafs23.exceptions.RetryLaterException;
 import ch.uzh.ifi.hase.soprafs23.rest.dto.UserPutDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.mapper.DTOMapper;
+import ch.uzh.ifi.hase.soprafs23.service.UserCreationResult;
 import ch.uzh.ifi.hase.soprafs23.service.UserService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -12,35 +16,50 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.test.web.servlet.MockMvc;
-import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.client.MockMvcWebTestClient;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.util.Collections;
-import java.util.Date;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
-import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.BDDMockito.given;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
-import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
  * UserControllerTest
  * This is a WebMvcTest which allows to test the UserController i.e. GET/POST
  * request without actually sending them over the network.
- * This tests if the UserController works.
+ * This tests if the UserController works. The cases shared with the
+ * ReactiveUserController are in the AbstractUserControllerTest and are sent
+ * through a WebTestClient bound to the MockMvc.
  */
 
 
 @WebMvcTest(UserController.class)
-public class UserControllerTest {
+public class UserControllerTest extends AbstractUserControllerTest {
 
     @Autowired
     private MockMvc mockMvc;
@@ -48,343 +67,314 @@ public class UserControllerTest {
     @MockBean
     private UserService userService;
 
-    @Test
-    public void givenUsers_whenGetUsers_thenReturnJsonArray() throws Exception {
-        // given
-        User user = new User();
-        user.setEmail("Email");
-        user.setUsername("Username");
-        user.setStatus(UserStatus.ONLINE);
+    @MockBean
+    private ConnectionPoolGuard connectionPoolGuard;
 
-        List<User> allUsers = Collections.singletonList(user);
+    @Override
+    protected WebTestClient webTestClient() {
+        return MockMvcWebTestClient.bindTo(mockMvc).build();
+    }
 
-        // this mocks the UserService -> we define above what the userService should
-        // return when getUsers() is called
-        given(userService.getUsers()).willReturn(allUsers);
+    @Override
+    protected void givenUsers(long after, int limit, Slice<User> users) {
+        given(userService.getUserGetDTOs(after, limit))
+                .willReturn(users.map(DTOMapper.INSTANCE::convertEntityToUserGetDTO));
+        given(userService.getUsers(Mockito.eq(after), Mockito.eq(limit), Mockito.any())).willReturn(users);
+    }
 
-        // when
-        MockHttpServletRequestBuilder getRequest = get("/users").contentType(MediaType.APPLICATION_JSON);
+    @Override
+    protected void givenUser(long id, User user) {
+        given(userService.getUser(id)).willReturn(user);
+        given(userService.getUser(Mockito.eq(id), Mockito.any())).willReturn(user);
+    }
 
-        // then
-        mockMvc.perform(getRequest).andExpect(status().isOk())
-                .andExpect(jsonPath("$", hasSize(1)))
-                .andExpect(jsonPath("$[0].email", is(user.getEmail())))
-                .andExpect(jsonPath("$[0].username", is(user.getUsername())))
-                .andExpect(jsonPath("$[0].status", is(user.getStatus().toString())));
+    @Override
+    protected void givenGetUserFails(ResponseStatusException e) {
+        given(userService.getUser(Mockito.anyLong())).willThrow(e);
     }
 
+    @Override
+    protected void givenCreatedUser(User user) {
+        given(userService.createUser(Mockito.any())).willReturn(user);
+    }
 
-    @Test
-    public void givenUser_whenGetUser_thenReturnUser() throws Exception {
-        //Given
-        User user = new User();
-        user.setId(1L);
-        user.setEmail("Email");
-        user.setUsername("testUsername");
-        user.setToken("1");
-        user.setStatus(UserStatus.ONLINE);
-        user.setPassword("1234");
+    @Override
+    protected void givenCreateUserFails(ResponseStatusException e) {
+        given(userService.createUser(Mockito.any())).willThrow(e);
+    }
 
-        // when
-        given(userService.getUser(Mockito.anyLong())).willReturn(user);
+    @Override
+    protected void givenCreatedUsers(List<UserCreationResult> results) {
+        given(userService.createUsers(Mockito.any())).willReturn(results);
+    }
 
-        MockHttpServletRequestBuilder getRequest = get("/users/1").contentType(MediaType.APPLICATION_JSON);
+    @Override
+    protected void givenUpdatedUser(User user) {
+        given(userService.updateUser(Mockito.any(), Mockito.anyLong())).willReturn(user);
+    }
 
-        // then
-        mockMvc.perform(getRequest).andExpect(status().isOk())
-                .andExpect(jsonPath("$.email", is(user.getEmail())))
-                .andExpect(jsonPath("$.username", is(user.getUsername())))
-                .andExpect(jsonPath("$.status", is(user.getStatus().toString())));
+    @Override
+    protected void givenUpdateUserFails(ResponseStatusException e) {
+        given(userService.updateUser(Mockito.any(), Mockito.anyLong())).willThrow(e);
     }
 
+    @Override
+    protected void givenAvailability(String username, boolean usernameAvailable, String email, boolean emailAvailable) {
+        given(userService.isUsernameAvailable(username)).willReturn(usernameAvailable);
+        given(userService.isEmailAvailable(email)).willReturn(emailAvailable);
+    }
 
-    @Test
-    public void UserDoesNotExist_whenGetUser_Error() throws Exception {
+    @Override
+    protected void givenSearchResult(String prefix, int limit, List<User> users) {
+        given(userService.searchUsers(prefix, limit)).willReturn(users);
+    }
 
-        // this mocks the UserService -> we define above what the userService should return when getUsers() is called
-        //
-        Mockito.when(userService.getUser(Mockito.anyLong())).thenThrow(new ResponseStatusException(HttpStatus.NOT_FOUND, String.format("No user found with Id %d", 1000)));
+    @Override
+    protected void givenLoggedInUser(User user) {
+        given(userService.loginUser(Mockito.any())).willReturn(user);
+    }
 
-        // when/then -> do the request + validate the result (REST API Test)
-        MockHttpServletRequestBuilder getRequest = get("/users/1")
-                .contentType(MediaType.APPLICATION_JSON);
+    @Override
+    protected void givenLoginFails(ResponseStatusException e) {
+        given(userService.loginUser(Mockito.any())).willThrow(e);
+    }
 
-        // then
-        mockMvc.perform(getRequest)
-                .andExpect(status().isNotFound());
+    @Override
+    protected void givenOfflineUser(User user) {
+        given(userService.setUserOffline(Mockito.any(), Mockito.anyLong())).willReturn(user);
     }
 
+    @Override
+    protected void givenHeartbeat() {
+        // heartbeat returns nothing
+    }
 
-    @Test
-    public void createUser_validInput_userCreated() throws Exception {
-        // given
-        User user = new User();
-        user.setId(1L);
-        user.setEmail("Email");
-        user.setUsername("testUsername");
-        user.setToken("1");
-        user.setStatus(UserStatus.ONLINE);
-        user.setPassword("1234");
+    @Override
+    protected void givenHeartbeatFails(ResponseStatusException e) {
+        Mockito.doThrow(e).when(userService).heartbeat(Mockito.any(), Mockito.anyLong());
+    }
 
-        UserPostDTO userPostDTO = new UserPostDTO();
-        userPostDTO.setEmail("Test User");
-        userPostDTO.setUsername("testUsername");
-        userPostDTO.setPassword("1234");
+    @Override
+    protected void verifyHeartbeat(long id) {
+        Mockito.verify(userService).heartbeat(Mockito.any(), Mockito.eq(id));
+    }
 
-        given(userService.createUser(Mockito.any())).willReturn(user);
+    @Override
+    protected void verifyNoLogin() {
+        Mockito.verify(userService, Mockito.never()).loginUser(Mockito.any());
+    }
 
-        // when/then -> do the request + validate the result
-        MockHttpServletRequestBuilder postRequest = post("/users")
-                .contentType(MediaType.APPLICATION_JSON)
-                .content(asJsonString(userPostDTO));
+    @Test
+    public void crossOriginGetUsers_exposesETagAndRetryAfter() throws Exception {
+        given(userService.getUserGetDTOs(0L, UserService.MAX_PAGE_SIZE)).willReturn(new SliceImpl<>(List.of()));
 
-        // then
-        mockMvc.perform(postRequest)
-                .andExpect(status().isCreated())
-                .andExpect(jsonPath("$.id", is(user.getId().intValue())))
-                .andExpect(jsonPath("$.username", is(user.getUsername())))
-                .andExpect(jsonPath("$.status", is(user.getStatus().toString())));
+        MvcResult result = mockMvc.perform(get("/users").header(HttpHeaders.ORIGIN, "https://frontend.example.com"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.ETAG))
+                .andReturn();
+
+        List<String> exposedHeaders = List.of(
+                result.getResponse().getHeader(HttpHeaders.ACCESS_CONTROL_EXPOSE_HEADERS).split(",\\s*"));
+        assertEquals(List.of("X-Next-Cursor", HttpHeaders.ETAG, HttpHeaders.RETRY_AFTER), exposedHeaders);
     }
 
     @Test
-    public void createUser_invalidInput_userNotCreated() throws Exception {
+    public void givenUsers_whenStreamUsers_thenReturnNdjson() throws Exception {
         // given
-        User user = new User();
-        user.setId(1L);
-        user.setEmail("Email");
-        user.setUsername("testUsername");
-        user.setToken("1");
-        user.setStatus(UserStatus.ONLINE);
-        user.setPassword("1234");
+        User first = new User();
+        first.setId(1L);
+        first.setUsername("first");
+        first.setStatus(UserStatus.ONLINE);
+        User second = new User();
+        second.setId(2L);
+        second.setUsername("second");
+        second.setStatus(UserStatus.OFFLINE);
+
+        Mockito.doAnswer(invocation -> {
+            Consumer<User> consumer = invocation.getArgument(0);
+            consumer.accept(first);
+            consumer.accept(second);
+            return null;
+        }).when(userService).streamUsers(Mockito.any());
 
-        UserPostDTO userPostDTO = new UserPostDTO();
-        userPostDTO.setEmail("Test User");
-        userPostDTO.setUsername("testUsername");
-        userPostDTO.setPassword("1234");
-
-        Mockito.when(userService.createUser(Mockito.any())).thenThrow(new ResponseStatusException(HttpStatus.CONFLICT, String.format("No user found with Id %d", 1000)));
-
-        // when/then -> do the request + validate the result
-        MockHttpServletRequestBuilder postRequest = post("/users")
-                .contentType(MediaType.APPLICATION_JSON)
-                .content(asJsonString(userPostDTO));
+        // when
+        MvcResult result = mockMvc.perform(get("/users/stream").accept("application/x-ndjson"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
 
         // then
-        mockMvc.perform(postRequest)
-                .andExpect(status().isConflict());
+        assertEquals(Duration.ofMinutes(30).toMillis(), result.getRequest().getAsyncContext().getTimeout());
+        String[] lines = mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentType("application/x-ndjson"))
+                .andReturn().getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("first", new ObjectMapper().readTree(lines[0]).get("username").asText());
+        assertEquals("second", new ObjectMapper().readTree(lines[1]).get("username").asText());
     }
 
-
     @Test
-    public void updateUser_validInput() throws Exception {
-        Date tempDate = new Date();
+    public void streamUsers_tooManyExports_serviceUnavailable() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        Mockito.doAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(userService).streamUsers(Mockito.any());
+
+        // users.export.max-concurrent exports are running
+        MvcResult first = mockMvc.perform(get("/users/stream")).andExpect(request().asyncStarted()).andReturn();
+        MvcResult second = mockMvc.perform(get("/users/stream")).andExpect(request().asyncStarted()).andReturn();
+        mockMvc.perform(get("/users/stream"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "30"));
+
+        // finished exports give their permits back
+        release.countDown();
+        mockMvc.perform(asyncDispatch(first)).andExpect(status().isOk());
+        mockMvc.perform(asyncDispatch(second)).andExpect(status().isOk());
+        MvcResult next = mockMvc.perform(get("/users/stream")).andExpect(request().asyncStarted()).andReturn();
+        mockMvc.perform(asyncDispatch(next)).andExpect(status().isOk());
+    }
 
-        // given
+    @Test
+    public void getUser_ifNoneMatch_notModified() throws Exception {
         User user = new User();
         user.setId(1L);
-        user.setPassword("password123");
-        user.setUsername("updateUsername");
         user.setEmail("Email");
-        user.setBirthdate("20-20-2022");
-        user.setToken("555");
-
-        UserPutDTO userPutDTO = new UserPutDTO();
-        userPutDTO.setUsername("updateUsername");
-        userPutDTO.setBirthdate("20-20-2022");
-        userPutDTO.setToken("555");
-
-        given(userService.updateUser(Mockito.any(), Mockito.anyLong())).willReturn(user);
-
-        // when/then -> do the request + validate the result
-        MockHttpServletRequestBuilder putRequest = put("/users/1")
-                .contentType(MediaType.APPLICATION_JSON)
-                .content(asJsonString(userPutDTO));
+        user.setUsername("testUsername");
+        user.setStatus(UserStatus.ONLINE);
+        user.setVersion(3L);
+        given(userService.getUser(1L)).willReturn(user);
 
-        // then
-        mockMvc.perform(putRequest)
-                .andExpect(status().isNoContent())
-                .andExpect(jsonPath("$.birthdate", is(user.getBirthdate())))
-                .andExpect(jsonPath("$.username", is(user.getUsername())));
+        mockMvc.perform(get("/users/1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"3-ONLINE\""));
+        mockMvc.perform(get("/users/1").header(HttpHeaders.IF_NONE_MATCH, "\"3-ONLINE\""))
+                .andExpect(status().isNotModified())
+                .andExpect(content().string(""));
+        // the status is part of the ETag
+        mockMvc.perform(get("/users/1").header(HttpHeaders.IF_NONE_MATCH, "\"3-OFFLINE\""))
+                .andExpect(status().isOk());
     }
 
     @Test
-    public void updateUser_IdDoesNotExist() throws Exception {
-        Date tempDate = new Date();
-
-        // given
+    public void getAllUsers_fields_onlySelectedFields() throws Exception {
         User user = new User();
         user.setId(1L);
-        user.setPassword("password123");
-        user.setUsername("updateUsername");
-        user.setEmail("Email");
-        user.setBirthdate("20-20-2022");
-        user.setToken("555");
-
-        UserPutDTO userPutDTO = new UserPutDTO();
-        userPutDTO.setUsername("updateUsername");
-        userPutDTO.setBirthdate("20-20-2022");
-        userPutDTO.setToken("555");
-
-        Mockito.when(userService.updateUser(Mockito.any(), Mockito.anyLong())).thenThrow(new ResponseStatusException(HttpStatus.NOT_FOUND, "STRING"));
-
-        // when/then -> do the request + validate the result
-        MockHttpServletRequestBuilder putRequest = put("/users/1")
-                .contentType(MediaType.APPLICATION_JSON)
-                .content(asJsonString(userPutDTO));
+        user.setUsername("testUsername");
+        user.setStatus(UserStatus.ONLINE);
+        given(userService.getUsers(0L, UserService.MAX_PAGE_SIZE, EnumSet.of(UserField.ID, UserField.USERNAME)))
+                .willReturn(new SliceImpl<>(List.of(user)));
+        given(userService.getUser(1L, EnumSet.of(UserField.STATUS))).willReturn(user);
 
-        // then
-        mockMvc.perform(putRequest)
-                .andExpect(status().isNotFound());
+        mockMvc.perform(get("/users").param("fields", "username,id"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].id", is(1)))
+                .andExpect(jsonPath("$[0].username", is("testUsername")))
+                .andExpect(jsonPath("$[0].status").doesNotExist())
+                .andExpect(jsonPath("$[0].token").doesNotExist());
+        mockMvc.perform(get("/users/1").param("fields", "status"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.status", is("ONLINE")))
+                .andExpect(jsonPath("$.id").doesNotExist());
+        mockMvc.perform(get("/users/1").param("fields", "password"))
+                .andExpect(status().isBadRequest());
     }
 
     @Test
-    public void updateUser_unauthorized() throws Exception {
-        Date tempDate = new Date();
-
-        // given
-        User user = new User();
-        user.setId(1L);
-        user.setPassword("password123");
-        user.setUsername("updateUsername");
-        user.setEmail("Email");
-        user.setBirthdate("20-20-2022");
-        user.setToken("555");
+    public void getUser_notFound_messageInBody() throws Exception {
+        givenGetUserFails(new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
+
+        mockMvc.perform(get("/users/1").contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.status", is(404)))
+                .andExpect(jsonPath("$.error", is("Not Found")))
+                .andExpect(jsonPath("$.message", is("User not found")))
+                .andExpect(jsonPath("$.path", is("/users/1")));
+    }
 
+    @Test
+    public void updateUser_conflict_messageInBody() throws Exception {
+        givenUpdateUserFails(new ResponseStatusException(HttpStatus.CONFLICT, "Username already taken"));
         UserPutDTO userPutDTO = new UserPutDTO();
-        userPutDTO.setUsername("updateUsername");
-        userPutDTO.setBirthdate("20-20-2022");
+        userPutDTO.setUsername("takenUsername");
         userPutDTO.setToken("555");
 
-        Mockito.when(userService.updateUser(Mockito.any(), Mockito.anyLong())).thenThrow(new ResponseStatusException(HttpStatus.UNAUTHORIZED, "STRING"));
-
-        // when/then -> do the request + validate the result
-        MockHttpServletRequestBuilder putRequest = put("/users/1")
-                .contentType(MediaType.APPLICATION_JSON)
-                .content(asJsonString(userPutDTO));
-
-        // then
-        mockMvc.perform(putRequest)
-                .andExpect(status().isUnauthorized());
+        mockMvc.perform(put("/users/1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(asJsonString(userPutDTO)))
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("$.message", is("Username already taken")));
     }
 
-
     @Test
-    public void updateUser_usernameTaken() throws Exception {
-        Date tempDate = new Date();
-
-        // given
+    public void updateUser_ifMatch_versionChecked() throws Exception {
         User user = new User();
         user.setId(1L);
-        user.setPassword("password123");
         user.setUsername("updateUsername");
-        user.setEmail("Email");
-        user.setBirthdate("20-20-2022");
-        user.setToken("555");
+        user.setStatus(UserStatus.ONLINE);
+        user.setVersion(4L);
 
         UserPutDTO userPutDTO = new UserPutDTO();
         userPutDTO.setUsername("updateUsername");
-        userPutDTO.setBirthdate("20-20-2022");
         userPutDTO.setToken("555");
 
-        Mockito.when(userService.updateUser(Mockito.any(), Mockito.anyLong())).thenThrow(new ResponseStatusException(HttpStatus.CONFLICT, "STRING"));
+        given(userService.updateUser(Mockito.argThat(userInput -> Long.valueOf(3L).equals(userInput.getVersion())),
+                Mockito.eq(1L))).willReturn(user);
 
-        // when/then -> do the request + validate the result
-        MockHttpServletRequestBuilder putRequest = put("/users/1")
-                .contentType(MediaType.APPLICATION_JSON)
-                .content(asJsonString(userPutDTO));
+        mockMvc.perform(put("/users/1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.IF_MATCH, "\"3-ONLINE\"")
+                        .content(asJsonString(userPutDTO)))
+                .andExpect(status().isNoContent())
+                .andExpect(header().string(HttpHeaders.ETAG, "\"4-ONLINE\""));
 
-        // then
-        mockMvc.perform(putRequest)
-                .andExpect(status().isConflict());
+        mockMvc.perform(put("/users/1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .header(HttpHeaders.IF_MATCH, "\"unknown\"")
+                        .content(asJsonString(userPutDTO)))
+                .andExpect(status().isPreconditionFailed());
     }
 
-
     @Test
-    public void successful_login() throws Exception {
-        //Given
-        User user = new User();
-        user.setId(1L);
-        user.setEmail("Email");
-        user.setUsername("testUsername");
-        user.setToken("1");
-        user.setStatus(UserStatus.ONLINE);
-        user.setPassword("1234");
-
-
-        UserPostDTO userPostDTO = new UserPostDTO();
-        userPostDTO.setUsername("testUsername");
-        userPostDTO.setPassword("1234");
-
-
-        given(userService.loginUser(Mockito.any())).willReturn(user);
-
-
-        // when/then -> do the request + validate the result
-        MockHttpServletRequestBuilder postRequest = post("/login")
-                .contentType(MediaType.APPLICATION_JSON)
-                .content(asJsonString(userPostDTO));
-
+    public void saturatedConnectionPool_writeRejectedWithRetryAfter() throws Exception {
+        Mockito.doThrow(new RetryLaterException(HttpStatus.SERVICE_UNAVAILABLE, "busy", Duration.ofSeconds(1)))
+                .when(connectionPoolGuard).checkCapacity();
+        UserPutDTO userPutDTO = new UserPutDTO();
+        userPutDTO.setToken("555");
 
-        // then
-        mockMvc.perform(postRequest)
-                .andExpect(status().isOk())
-                .andExpect(jsonPath("$.id", is(user.getId().intValue())))
-                .andExpect(jsonPath("$.username", is(user.getUsername())))
-                .andExpect(jsonPath("$.status", is(user.getStatus().toString())));
+        mockMvc.perform(put("/users/offline/1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(asJsonString(userPutDTO)))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
+        Mockito.verifyNoInteractions(userService);
     }
 
-
     @Test
-    public void unsuccessful_login() throws Exception {
-        UserPostDTO userPostDTO = new UserPostDTO();
-        userPostDTO.setUsername("testUsername");
-        userPostDTO.setPassword("testPassword");
-
-        Mockito.when(userService.loginUser(Mockito.any())).thenThrow(new ResponseStatusException(HttpStatus.BAD_REQUEST, "STRING"));
-
-        // when/then -> do the request + validate the result
-        MockHttpServletRequestBuilder postRequest = post("/login")
-                .contentType(MediaType.APPLICATION_JSON)
-                .content(asJsonString(userPostDTO));
-
-        // then
-        mockMvc.perform(postRequest)
-                .andExpect(status().isBadRequest());
+    public void saturatedPrimaryPool_readNotRejected() throws Exception {
+        // the read goes to a replica, only checkReadCapacity applies to it
+        Mockito.doThrow(new RetryLaterException(HttpStatus.SERVICE_UNAVAILABLE, "busy", Duration.ofSeconds(1)))
+                .when(connectionPoolGuard).checkCapacity();
+        givenUsers(0L, UserService.MAX_PAGE_SIZE, new SliceImpl<>(List.of()));
+
+        mockMvc.perform(get("/users").contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+        Mockito.verify(connectionPoolGuard).checkReadCapacity();
     }
 
-
     @Test
-    public void successful_SetUserOffline() throws Exception {
-        //Given
-        User user = new User();
-        user.setId(1L);
-        user.setEmail("Email");
-        user.setUsername("testUsername");
-        user.setToken("555");
-        user.setStatus(UserStatus.OFFLINE);
-        user.setPassword("1234");
-
-
-        given(userService.setUserOffline(Mockito.any(), Mockito.anyLong())).willReturn(user);
-
-
-        UserPutDTO userPutDTO = new UserPutDTO();
-        userPutDTO.setToken("555");
-
-
-        // when/then -> do the request + validate the result
-        MockHttpServletRequestBuilder putRequest = put("/users/offline/1")
-                .contentType(MediaType.APPLICATION_JSON)
-                .content(asJsonString(userPutDTO));
-
-
-        // then
-        mockMvc.perform(putRequest)
-                .andExpect(status().isOk())
-                .andExpect(jsonPath("$.status", is(user.getStatus().toString())));
+    public void connectionTimeout_serviceUnavailable() throws Exception {
+        given(userService.getUserGetDTOs(0L, UserService.MAX_PAGE_SIZE)).willThrow(new DataAccessResourceFailureException(
+                "Unable to acquire JDBC Connection", new SQLTransientConnectionException("request timed out")));
+        given(connectionPoolGuard.unavailable()).willReturn(
+                new RetryLaterException(HttpStatus.SERVICE_UNAVAILABLE, "busy", Duration.ofSeconds(1)));
+
+        mockMvc.perform(get("/users").contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", "1"));
     }
 
-
     /**
      * Helper Method to convert userPostDTO into a JSON string such that the input
      * can be processed
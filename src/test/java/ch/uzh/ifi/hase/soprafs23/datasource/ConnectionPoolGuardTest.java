@@ -0,0 +1,99 @@
+package ch.uzh.ifi.hase.soprafs23.datasource;
+
+import ch.uzh.ifi.hase.soprafs23.exceptions.RetryLaterException;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpStatus;
+
+import java.sql.Connection;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConnectionPoolGuardTest {
+
+  private HikariDataSource dataSource;
+
+  @BeforeEach
+  public void setup() {
+    dataSource = new HikariDataSource();
+    dataSource.setJdbcUrl("jdbc:h2:mem:guard");
+    dataSource.setUsername("sa");
+    dataSource.setMaximumPoolSize(1);
+    dataSource.setConnectionTimeout(5000);
+  }
+
+  @AfterEach
+  public void teardown() {
+    dataSource.close();
+  }
+
+  @Test
+  public void checkCapacity_poolNotStarted_accepted() {
+    ConnectionPoolGuard guard = new ConnectionPoolGuard(dataSource, noReplicas(), 1, Duration.ofSeconds(1));
+
+    assertDoesNotThrow(guard::checkCapacity);
+  }
+
+  @Test
+  public void checkCapacity_tooManyWaiting_serviceUnavailable() throws Exception {
+    ConnectionPoolGuard guard = new ConnectionPoolGuard(dataSource, noReplicas(), 1, Duration.ofSeconds(2));
+
+    try (Connection onlyConnection = dataSource.getConnection()) {
+      assertDoesNotThrow(guard::checkCapacity);
+
+      // a second thread queues for the only connection
+      CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> {
+        try (Connection connection = dataSource.getConnection()) {
+          assertNotNull(connection);
+        }
+        catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      });
+      while (dataSource.getHikariPoolMXBean().getThreadsAwaitingConnection() == 0) {
+        Thread.sleep(10);
+      }
+
+      RetryLaterException exception = assertThrows(RetryLaterException.class, guard::checkCapacity);
+      assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatusCode());
+      assertEquals("2", exception.getHeaders().getFirst("Retry-After"));
+
+      onlyConnection.close();
+      waiting.get();
+    }
+    assertDoesNotThrow(guard::checkCapacity);
+  }
+
+  @Test
+  public void checkReadCapacity_primarySaturated_onlyRejectedWithoutReplicas() throws Exception {
+    ConnectionPoolGuard withoutReplicas = new ConnectionPoolGuard(dataSource, noReplicas(), 0, Duration.ofSeconds(1));
+    ConnectionPoolGuard withReplicas = new ConnectionPoolGuard(dataSource,
+        new ReplicaDataSource(dataSource, Map.of("replica-0", dataSource), Duration.ofSeconds(1)), 0,
+        Duration.ofSeconds(1));
+
+    // start the pool, with max-pending 0 the primary counts as saturated
+    try (Connection connection = dataSource.getConnection()) {
+      assertThrows(RetryLaterException.class, withoutReplicas::checkReadCapacity);
+      assertThrows(RetryLaterException.class, withReplicas::checkCapacity);
+      assertDoesNotThrow(withReplicas::checkReadCapacity);
+    }
+  }
+
+  @Test
+  public void isConnectionTimeout_wrappedTimeout_true() {
+    assertTrue(ConnectionPoolGuard.isConnectionTimeout(new DataAccessResourceFailureException("no connection",
+        new SQLTransientConnectionException("request timed out"))));
+    assertFalse(ConnectionPoolGuard.isConnectionTimeout(new DataAccessResourceFailureException("disk full")));
+  }
+
+  private ReplicaDataSource noReplicas() {
+    return new ReplicaDataSource(dataSource, Map.of(), Duration.ofSeconds(1));
+  }
+}
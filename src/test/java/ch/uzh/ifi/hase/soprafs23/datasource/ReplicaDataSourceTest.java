@@ -0,0 +1,113 @@
+package ch.uzh.ifi.hase.soprafs23.datasource;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplicaDataSourceTest {
+
+  private static DataSource h2(String name) {
+    JdbcDataSource dataSource = new JdbcDataSource();
+    dataSource.setURL("jdbc:h2:mem:" + name);
+    dataSource.setUser("sa");
+    return dataSource;
+  }
+
+  // an H2 database that does not exist and is not created, so every connection fails
+  private static DataSource unreachable() {
+    return h2("unreachable;IFEXISTS=TRUE");
+  }
+
+  private static String databaseOf(Connection connection) throws SQLException {
+    try (connection) {
+      return connection.getCatalog();
+    }
+  }
+
+  private static double readConnections(MeterRegistry registry, String target) {
+    return registry.get("users.datasource.read-connections").tag("target", target).functionCounter().count();
+  }
+
+  @Test
+  public void getConnection_replicas_roundRobin() throws SQLException {
+    Map<String, DataSource> replicas = new LinkedHashMap<>();
+    replicas.put("replica-0", h2("replica0"));
+    replicas.put("replica-1", h2("replica1"));
+    ReplicaDataSource dataSource = new ReplicaDataSource(h2("primary"), replicas, Duration.ofMinutes(1));
+    MeterRegistry registry = new SimpleMeterRegistry();
+    dataSource.bindTo(registry);
+
+    assertEquals("REPLICA0", databaseOf(dataSource.getConnection()));
+    assertEquals("REPLICA1", databaseOf(dataSource.getConnection()));
+    assertEquals("REPLICA0", databaseOf(dataSource.getConnection()));
+
+    assertEquals(2, readConnections(registry, "replica-0"));
+    assertEquals(1, readConnections(registry, "replica-1"));
+    assertEquals(0, readConnections(registry, "primary"));
+  }
+
+  @Test
+  public void getConnection_replicaFails_skippedForRetryInterval() throws SQLException {
+    Map<String, DataSource> replicas = new LinkedHashMap<>();
+    replicas.put("replica-0", unreachable());
+    replicas.put("replica-1", h2("replica1"));
+    ReplicaDataSource dataSource = new ReplicaDataSource(h2("primary"), replicas, Duration.ofMinutes(1));
+
+    // replica-0 fails and the same request gets replica-1
+    assertEquals("REPLICA1", databaseOf(dataSource.getConnection()));
+    assertEquals(List.of("replica-1"), dataSource.getAvailableReplicas());
+    // it is not tried again until the retry interval is over
+    assertEquals("REPLICA1", databaseOf(dataSource.getConnection()));
+    assertEquals("REPLICA1", databaseOf(dataSource.getConnection()));
+  }
+
+  @Test
+  public void getConnection_afterRetryInterval_replicaTriedAgain() throws SQLException {
+    Map<String, DataSource> replicas = new LinkedHashMap<>();
+    replicas.put("replica-0", unreachable());
+    ReplicaDataSource dataSource = new ReplicaDataSource(h2("primary"), replicas, Duration.ZERO);
+    MeterRegistry registry = new SimpleMeterRegistry();
+    dataSource.bindTo(registry);
+
+    assertEquals("PRIMARY", databaseOf(dataSource.getConnection()));
+    assertEquals(List.of("replica-0"), dataSource.getAvailableReplicas());
+    assertEquals("PRIMARY", databaseOf(dataSource.getConnection()));
+    assertEquals(2, readConnections(registry, "primary"));
+  }
+
+  @Test
+  public void getConnection_allReplicasDown_primary() throws SQLException {
+    Map<String, DataSource> replicas = new LinkedHashMap<>();
+    replicas.put("replica-0", unreachable());
+    replicas.put("replica-1", unreachable());
+    ReplicaDataSource dataSource = new ReplicaDataSource(h2("primary"), replicas, Duration.ofMinutes(1));
+    MeterRegistry registry = new SimpleMeterRegistry();
+    dataSource.bindTo(registry);
+
+    assertEquals("PRIMARY", databaseOf(dataSource.getConnection()));
+    assertEquals("PRIMARY", databaseOf(dataSource.getConnection()));
+
+    assertTrue(dataSource.getAvailableReplicas().isEmpty());
+    assertEquals(0, registry.get("users.datasource.replicas.available").gauge().value());
+    assertEquals(2, readConnections(registry, "primary"));
+  }
+
+  @Test
+  public void getConnection_noReplicas_primary() throws SQLException {
+    ReplicaDataSource dataSource = new ReplicaDataSource(h2("primary"), Map.of(), Duration.ofMinutes(1));
+
+    assertFalse(dataSource.hasReplicas());
+    assertEquals("PRIMARY", databaseOf(dataSource.getConnection()));
+  }
+}
@@ -0,0 +1,121 @@
+package ch.uzh.ifi.hase.soprafs23.datasource;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs23.service.UserCache;
+import ch.uzh.ifi.hase.soprafs23.service.UserService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Two pools on the primary's in-memory H2 database stand in for replicas,
+ * a third replica cannot be reached.
+ */
+@WebAppConfiguration
+@SpringBootTest(properties = {
+    "spring.datasource.url=jdbc:h2:mem:routing",
+    "users.datasource.replica-urls=jdbc:h2:mem:routing,jdbc:h2:mem:routing,jdbc:h2:mem:unreachable;IFEXISTS=TRUE",
+    "users.datasource.replica-connection-timeout=PT0.25S",
+    "users.datasource.replica-retry-interval=PT1M"
+})
+public class ReplicaRoutingIntegrationTest {
+
+  @Qualifier("userRepository")
+  @Autowired
+  private UserRepository userRepository;
+
+  @Autowired
+  private UserService userService;
+
+  @Autowired
+  private UserCache userCache;
+
+  @Autowired
+  private ReplicaDataSource replicaDataSource;
+
+  @Autowired
+  private MeterRegistry meterRegistry;
+
+  @BeforeEach
+  public void setup() {
+    userRepository.deleteAll();
+    userCache.invalidateAll();
+  }
+
+  private double readConnections() {
+    return meterRegistry.get("users.datasource.read-connections").functionCounters().stream()
+        .mapToDouble(counter -> counter.count())
+        .sum();
+  }
+
+  private double replicaReadConnections() {
+    return readConnections() - meterRegistry.get("users.datasource.read-connections").tag("target", "primary")
+        .functionCounter().count();
+  }
+
+  private User createUser(String username) {
+    User newUser = new User();
+    newUser.setUsername(username);
+    newUser.setEmail(username + "@example.com");
+    newUser.setPassword("1234");
+    return userService.createUser(newUser);
+  }
+
+  @Test
+  public void reads_goToReplicas() {
+    User user = createUser("reader");
+    userCache.invalidateAll();
+
+    double before = replicaReadConnections();
+    assertEquals(user.getId(), userService.getUser(user.getId()).getId());
+    assertEquals(1, userService.getUsers(0, 10).getNumberOfElements());
+    assertEquals(1, userService.getUserGetDTOs(0, 10).getNumberOfElements());
+    userCache.invalidateAll();
+    assertEquals(List.of(user.getId()), userService.searchUsers("read", 10).stream().map(User::getId).toList());
+
+    assertEquals(before + 4, replicaReadConnections());
+    // the unreachable replica failed once and is skipped now
+    assertEquals(List.of("replica-0", "replica-1"), replicaDataSource.getAvailableReplicas());
+  }
+
+  @Test
+  public void poolMetrics_primaryAndReplicas() {
+    createUser("metrics");
+    userCache.invalidateAll();
+    userService.getUsers(0, 10);
+
+    for (String pool : List.of("primary", "replica-0", "replica-1")) {
+      assertNotNull(meterRegistry.get("hikaricp.connections.pending").tag("pool", pool).gauge());
+      assertNotNull(meterRegistry.get("hikaricp.connections.active").tag("pool", pool).gauge());
+      assertNotNull(meterRegistry.get("hikaricp.connections.acquire").tag("pool", pool).timer());
+    }
+  }
+
+  @Test
+  public void writesAndLogin_goToPrimary() {
+    double before = readConnections();
+
+    User user = createUser("writer");
+    User userInput = new User();
+    userInput.setUsername("writer");
+    userInput.setToken(user.getToken());
+    userInput.setBirthdate("01-01-2000");
+    userService.updateUser(userInput, user.getId());
+    userCache.invalidateAll();
+    userInput.setPassword("1234");
+    assertEquals(user.getId(), userService.loginUser(userInput).getId());
+
+    // the IdentityFilter rules the new username out, so createUser does not read either
+    assertEquals(before, readConnections());
+    assertEquals("01-01-2000", userRepository.findById((long) user.getId()).getBirthdate());
+  }
+}
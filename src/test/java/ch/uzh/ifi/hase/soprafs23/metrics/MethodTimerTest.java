@@ -0,0 +1,59 @@
+package ch.uzh.ifi.hase.soprafs23.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MethodTimerTest {
+
+  public interface Lookup {
+    String find(long id);
+  }
+
+  private MeterRegistry registry;
+
+  private Lookup lookup;
+
+  @BeforeEach
+  public void setup() {
+    registry = new SimpleMeterRegistry();
+    DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+    beanFactory.registerSingleton("registry", registry);
+
+    ProxyFactory proxyFactory = new ProxyFactory((Lookup) id -> {
+      if (id < 0) {
+        throw new ResponseStatusException(HttpStatus.NOT_FOUND, "not found");
+      }
+      return "user" + id;
+    });
+    proxyFactory.addAdvice(new MethodTimer(beanFactory.getBeanProvider(MeterRegistry.class), "test", "Lookup"));
+    lookup = (Lookup) proxyFactory.getProxy();
+  }
+
+  @Test
+  public void invoke_success_recordedWithoutException() {
+    assertEquals("user1", lookup.find(1));
+    assertEquals("user2", lookup.find(2));
+
+    Timer timer = registry.get("test").tags("class", "Lookup", "method", "find", "exception", "none").timer();
+    assertEquals(2, timer.count());
+  }
+
+  @Test
+  public void invoke_responseStatusException_recordedWithStatus() {
+    lookup.find(1);
+    assertThrows(ResponseStatusException.class, () -> lookup.find(-1));
+
+    Timer timer = registry.get("test").tags("exception", "ResponseStatusException", "status", "404").timer();
+    assertEquals(1, timer.count());
+    assertEquals(1, registry.get("test").tags("status", "none").timer().count());
+  }
+}
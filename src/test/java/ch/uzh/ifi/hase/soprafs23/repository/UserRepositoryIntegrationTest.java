@@ -1,17 +1,25 @@
 package ch.uzh.ifi.hase.soprafs23.repository;
 
 
+import ch.uzh.ifi.hase.soprafs23.constant.UserField;
 import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs23.entity.User;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @DataJpaTest
 public class UserRepositoryIntegrationTest {
@@ -74,4 +82,113 @@ public class UserRepositoryIntegrationTest {
         assertEquals(found.getToken(), user.getToken());
         assertEquals(found.getStatus(), user.getStatus());
     }
+
+    @Test
+    public void findByUsernameAndEmail_ignoreCase() {
+        // given
+        User user = new User();
+        user.setEmail("First.Last@Example.com");
+        user.setUsername("FirstName");
+        user.setPassword("1234");
+        user.setStatus(UserStatus.OFFLINE);
+        user.setToken("1");
+        user.setCreationDate(new Date());
+        user.setRegistrationDate("20-20-2022");
+
+        entityManager.persist(user);
+        entityManager.flush();
+
+        // then
+        assertEquals(user.getId(), userRepository.findByUsername("firstname").getId());
+        assertEquals(user.getId(), userRepository.findByEmail("FIRST.LAST@EXAMPLE.COM").getId());
+        assertEquals("FirstName", userRepository.findIdentities("FIRSTNAME", "other").get(0).getUsername());
+        assertNull(userRepository.findByUsername("firstname2"));
+    }
+
+    @Test
+    public void findFields_onlyRequestedFieldsRead() {
+        // given
+        User[] users = new User[2];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new User();
+            users[i].setEmail("Email" + i);
+            users[i].setUsername("username" + i);
+            users[i].setPassword("1234");
+            users[i].setStatus(UserStatus.ONLINE);
+            users[i].setToken(String.valueOf(i));
+            users[i].setCreationDate(new Date());
+            users[i].setRegistrationDate("20-20-2022");
+            entityManager.persist(users[i]);
+        }
+        entityManager.flush();
+
+        // when
+        List<User> found = userRepository.findFieldsByIdGreaterThan(EnumSet.of(UserField.USERNAME), 0L, 1);
+        User foundById = userRepository.findFieldsById(EnumSet.of(UserField.EMAIL), users[1].getId());
+
+        // then
+        assertEquals(1, found.size());
+        assertEquals(users[0].getId(), found.get(0).getId());
+        assertEquals("username0", found.get(0).getUsername());
+        assertEquals(UserStatus.ONLINE, found.get(0).getStatus());
+        assertNotNull(found.get(0).getVersion());
+        assertNull(found.get(0).getEmail());
+        assertNull(found.get(0).getToken());
+        assertEquals("Email1", foundById.getEmail());
+        assertNull(foundById.getUsername());
+        assertNull(userRepository.findFieldsById(EnumSet.of(UserField.EMAIL), users[1].getId() + 1));
+    }
+
+    @Test
+    public void findByToken_success() {
+        // given
+        User user = new User();
+        user.setEmail("Email");
+        user.setUsername("firstname@lastname");
+        user.setPassword("1234");
+        user.setStatus(UserStatus.OFFLINE);
+        user.setToken("token");
+        user.setCreationDate(new Date());
+        user.setRegistrationDate("20-20-2022");
+
+        entityManager.persist(user);
+        entityManager.flush();
+
+        // when
+        User found = userRepository.findByToken(user.getToken());
+
+        // then
+        assertEquals(found.getId(), user.getId());
+        assertNull(userRepository.findByToken("otherToken"));
+    }
+
+    @Test
+    public void findByIdGreaterThan_returnsNextPage() {
+        // given
+        User[] users = new User[3];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new User();
+            users[i].setEmail("Email" + i);
+            users[i].setUsername("username" + i);
+            users[i].setPassword("1234");
+            users[i].setStatus(UserStatus.OFFLINE);
+            users[i].setToken(String.valueOf(i));
+            users[i].setCreationDate(new Date());
+            users[i].setRegistrationDate("20-20-2022");
+            entityManager.persist(users[i]);
+        }
+        entityManager.flush();
+
+        // when
+        Slice<User> firstPage = userRepository.findByIdGreaterThanOrderByIdAsc(0L, PageRequest.of(0, 2));
+        Slice<User> lastPage = userRepository.findByIdGreaterThanOrderByIdAsc(users[1].getId(), PageRequest.of(0, 2));
+
+        // then
+        assertEquals(2, firstPage.getNumberOfElements());
+        assertEquals(users[0].getId(), firstPage.getContent().get(0).getId());
+        assertTrue(firstPage.hasNext());
+        assertEquals(1, lastPage.getNumberOfElements());
+        assertEquals(users[2].getId(), lastPage.getContent().get(0).getId());
+        assertFalse(lastPage.hasNext());
+    }
 }
@@ -0,0 +1,71 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.exceptions.RetryLaterException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoginRateLimiterTest {
+
+    private final AtomicLong nanoTime = new AtomicLong();
+
+    // 3 attempts per username, 5 per address, one more every second
+    private final LoginRateLimiter rateLimiter = new LoginRateLimiter(true, 3, Duration.ofSeconds(1), 5,
+            Duration.ofSeconds(1), 100, nanoTime::get);
+
+    @Test
+    public void checkLogin_burstPerUsername_thenThrottled() {
+        for (int i = 0; i < 3; i++) {
+            rateLimiter.checkLogin("testUsername", "10.0.0.1");
+        }
+
+        RetryLaterException exception = assertThrows(RetryLaterException.class,
+                () -> rateLimiter.checkLogin("testUsername", "10.0.0.2"));
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, exception.getStatusCode());
+        assertEquals(Duration.ofSeconds(1), exception.getRetryAfter());
+        assertEquals("1", exception.getHeaders().getFirst("Retry-After"));
+        assertEquals(1, rateLimiter.getThrottledCount());
+
+        // other usernames are not affected
+        rateLimiter.checkLogin("otherUsername", "10.0.0.1");
+
+        // one token back per second
+        nanoTime.addAndGet(Duration.ofSeconds(1).toNanos());
+        rateLimiter.checkLogin("testUsername", "10.0.0.1");
+        assertThrows(RetryLaterException.class, () -> rateLimiter.checkLogin("testUsername", "10.0.0.1"));
+    }
+
+    @Test
+    public void checkLogin_manyUsernamesFromOneAddress_throttled() {
+        for (int i = 0; i < 5; i++) {
+            rateLimiter.checkLogin("user" + i, "10.0.0.1");
+        }
+
+        assertThrows(RetryLaterException.class, () -> rateLimiter.checkLogin("user5", "10.0.0.1"));
+        rateLimiter.checkLogin("user5", "10.0.0.2");
+    }
+
+    @Test
+    public void checkLogin_idleKeysEvicted() {
+        rateLimiter.checkLogin("testUsername", "10.0.0.1");
+        assertEquals(2, rateLimiter.getTrackedKeyCount());
+
+        // the buckets are full again after burst * refill interval
+        nanoTime.addAndGet(Duration.ofSeconds(6).toNanos());
+        assertEquals(0, rateLimiter.getTrackedKeyCount());
+    }
+
+    @Test
+    public void checkLogin_disabled_neverThrottled() {
+        LoginRateLimiter disabled = new LoginRateLimiter(false, 1, Duration.ofSeconds(1), 1,
+                Duration.ofSeconds(1), 100, nanoTime::get);
+
+        for (int i = 0; i < 10; i++) {
+            disabled.checkLogin("testUsername", "10.0.0.1");
+        }
+    }
+}
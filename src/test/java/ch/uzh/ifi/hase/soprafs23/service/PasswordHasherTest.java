@@ -0,0 +1,152 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PasswordHasherTest {
+
+    private final PasswordHasher passwordHasher = new PasswordHasher(4, 1, 10);
+
+    @AfterEach
+    public void shutdown() {
+        passwordHasher.shutdown();
+    }
+
+    @Test
+    public void hash_matchesOnlySamePassword() {
+        String hash = passwordHasher.hash("1234");
+
+        assertNotEquals("1234", hash);
+        assertNotEquals(hash, passwordHasher.hash("1234"));
+        assertTrue(passwordHasher.matches("1234", hash));
+        assertFalse(passwordHasher.matches("12345", hash));
+        assertFalse(passwordHasher.matches(null, hash));
+        assertFalse(passwordHasher.needsRehash(hash));
+    }
+
+    @Test
+    public void needsRehash_otherStrengthOrPlainText() {
+        PasswordHasher strongerHasher = new PasswordHasher(5, 1, 10);
+        try {
+            String weakHash = passwordHasher.hash("1234");
+            assertTrue(strongerHasher.needsRehash(weakHash));
+            // hashes of other strengths are still checked correctly
+            assertTrue(strongerHasher.matches("1234", weakHash));
+        }
+        finally {
+            strongerHasher.shutdown();
+        }
+
+        assertTrue(passwordHasher.needsRehash("1234"));
+        assertTrue(passwordHasher.matches("1234", "1234"));
+        assertFalse(passwordHasher.matches("123", "1234"));
+    }
+
+    @Test
+    public void hashAll_keepsOrder() {
+        List<String> hashes = passwordHasher.hashAll(List.of("a", "b", "c"));
+
+        assertEquals(3, hashes.size());
+        assertTrue(passwordHasher.matches("a", hashes.get(0)));
+        assertTrue(passwordHasher.matches("b", hashes.get(1)));
+        assertTrue(passwordHasher.matches("c", hashes.get(2)));
+    }
+
+    @Test
+    public void hashAsync_queueFull_serviceUnavailable() {
+        PasswordHasher slowHasher = new PasswordHasher(12, 1, 1);
+        try {
+            // one hash running, one queued, the rest is rejected
+            List<CompletableFuture<String>> hashes = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                hashes.add(slowHasher.hashAsync("1234"));
+            }
+
+            ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                    () -> slowHasher.hash("1234"));
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatusCode());
+            assertTrue(hashes.get(2).isCompletedExceptionally());
+        }
+        finally {
+            slowHasher.shutdown();
+        }
+    }
+
+    @Test
+    public void hashAll_leavesHalfOfQueueForOtherHashes() throws Exception {
+        PasswordHasher slowHasher = new PasswordHasher(10, 1, 4);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        slowHasher.bindTo(registry);
+        try {
+            CompletableFuture<List<String>> batch = CompletableFuture.supplyAsync(
+                    () -> slowHasher.hashAll(Collections.nCopies(5, "1234")));
+            awaitExecutor(5000, () -> registry.get("executor.active").gauge().value() == 1);
+
+            // the batch never has more than two hashes queued, the other two places are left
+            List<CompletableFuture<String>> hashes = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                hashes.add(slowHasher.hashAsync("1234"));
+            }
+
+            for (CompletableFuture<String> hash : hashes) {
+                assertTrue(slowHasher.matches("1234", hash.get(10, TimeUnit.SECONDS)));
+            }
+            assertEquals(5, batch.get(10, TimeUnit.SECONDS).size());
+        }
+        finally {
+            slowHasher.shutdown();
+        }
+    }
+
+    @Test
+    public void hashAll_queueFull_cancelsSubmittedHashes() throws Exception {
+        PasswordHasher slowHasher = new PasswordHasher(12, 1, 4);
+        MeterRegistry registry = new SimpleMeterRegistry();
+        slowHasher.bindTo(registry);
+        try {
+            // one hash running and three queued, room for one more
+            List<CompletableFuture<String>> hashes = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                hashes.add(slowHasher.hashAsync("1234"));
+            }
+
+            ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                    () -> slowHasher.hashAll(List.of("a", "b")));
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, exception.getStatusCode());
+            // right away, not after the queued hash of the batch
+            assertFalse(hashes.get(3).isDone());
+
+            // the queued hash of the batch is skipped, the pool is idle right after the other hashes
+            for (CompletableFuture<String> hash : hashes) {
+                hash.get(30, TimeUnit.SECONDS);
+            }
+            // (much sooner than another hash would take)
+            awaitExecutor(50, () -> registry.get("executor.active").gauge().value() == 0
+                    && registry.get("executor.queued").gauge().value() == 0);
+        }
+        finally {
+            slowHasher.shutdown();
+        }
+    }
+
+    private static void awaitExecutor(long timeoutMillis, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "the hashing pool did not get there in time");
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserEventDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceServiceTest {
+
+  private final Map<Long, UserStatus> writtenStatuses = new ConcurrentHashMap<>();
+
+  private final List<UserEventDTO> events = new CopyOnWriteArrayList<>();
+
+  private final CountDownLatch releaseFirstChange = new CountDownLatch(1);
+
+  private final CountDownLatch firstChangeStarted = new CountDownLatch(1);
+
+  private final AtomicBoolean first = new AtomicBoolean(true);
+
+  private PresenceService presenceService;
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  public void setup() {
+    UserRepository userRepository = Mockito.mock(UserRepository.class);
+    Mockito.when(userRepository.updateStatus(Mockito.any(), Mockito.anyCollection())).thenAnswer(invocation -> {
+      UserStatus status = invocation.getArgument(0);
+      ((Collection<Long>) invocation.getArgument(1)).forEach(userId -> writtenStatuses.put(userId, status));
+      return 1;
+    });
+    // the event of the first change is held back until the test releases it
+    presenceService = new PresenceService(userRepository, event -> {
+      if (first.getAndSet(false)) {
+        firstChangeStarted.countDown();
+        try {
+          releaseFirstChange.await(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      events.add((UserEventDTO) event);
+    }, Duration.ofMinutes(2), Duration.ofSeconds(1));
+  }
+
+  @Test
+  public void concurrentChanges_statusWriteAndEventsAgree() throws Exception {
+    CompletableFuture<Void> online = CompletableFuture.runAsync(() -> presenceService.markOnline(1L));
+    assertTrue(firstChangeStarted.await(5, TimeUnit.SECONDS));
+    // the user is not locked while the first event is published
+    CompletableFuture.runAsync(() -> presenceService.markOffline(1L)).get(1, TimeUnit.SECONDS);
+    releaseFirstChange.countDown();
+    online.get(5, TimeUnit.SECONDS);
+    presenceService.flush();
+
+    UserStatus status = presenceService.getStatus(1L, null);
+    assertEquals(UserStatus.OFFLINE, status);
+    assertEquals(status, writtenStatuses.get(1L));
+    assertEquals(2, events.size());
+    // the events were published out of order, the newer one has the higher sequence number
+    assertEquals(List.of(2L, 1L), events.stream().map(UserEventDTO::getSequence).toList());
+    assertEquals(status, events.stream().max(Comparator.comparing(UserEventDTO::getSequence)).get().getStatus());
+  }
+
+  @Test
+  public void expire_heartbeatAfterTimeout_staysOnline() throws Exception {
+    releaseFirstChange.countDown();
+    presenceService.markOnline(1L);
+
+    // a heartbeat restarted the timeout after the wheel returned the user
+    presenceService.expire(1L);
+    assertEquals(UserStatus.ONLINE, presenceService.getStatus(1L, null));
+    assertEquals(1, events.size());
+  }
+
+  @Test
+  public void expireIdleUsers_noHeartbeat_setsOffline() throws Exception {
+    releaseFirstChange.countDown();
+    PresenceService shortTimeout = new PresenceService(Mockito.mock(UserRepository.class),
+        event -> events.add((UserEventDTO) event), Duration.ofMillis(1), Duration.ofMillis(1));
+    shortTimeout.markOnline(1L);
+
+    Thread.sleep(20);
+    shortTimeout.expireIdleUsers();
+    assertEquals(UserStatus.OFFLINE, shortTimeout.getStatus(1L, null));
+    assertEquals(2, events.size());
+  }
+}
@@ -0,0 +1,216 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.ReactiveUserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpStatus;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.ReactiveTransactionManager;
+import org.springframework.web.server.ResponseStatusException;
+
+import jakarta.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the ReactiveUserService of the "reactive" profile against the
+ * in-memory database over R2DBC.
+ *
+ * @see ReactiveUserService
+ */
+@SpringBootTest
+@ActiveProfiles("reactive")
+public class ReactiveUserServiceIntegrationTest {
+
+    @Autowired
+    private ReactiveUserService userService;
+
+    @Autowired
+    private DatabaseClient databaseClient;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @SpyBean
+    private ReactiveUserRepository userRepository;
+
+    @BeforeEach
+    public void setup() {
+        databaseClient.sql("delete from \"USER\"").then().block();
+    }
+
+    private static User newUser(String username) {
+        User user = new User();
+        user.setEmail(username + "@example.com");
+        user.setUsername(username);
+        user.setPassword("1234");
+        return user;
+    }
+
+    @Test
+    public void context_noJdbcOrJpa() {
+        // only R2DBC, no blocking connection pool or second transaction manager
+        assertEquals(0, applicationContext.getBeanNamesForType(DataSource.class).length);
+        assertEquals(0, applicationContext.getBeanNamesForType(EntityManagerFactory.class).length);
+        assertEquals(0, applicationContext.getBeanNamesForType(PlatformTransactionManager.class).length);
+        assertEquals(1, applicationContext.getBeanNamesForType(ReactiveTransactionManager.class).length);
+    }
+
+    @Test
+    public void createUser_validInputs_success() {
+        User createdUser = userService.createUser(newUser("testUsername")).block();
+
+        assertNotNull(createdUser.getId());
+        assertNotNull(createdUser.getToken());
+        assertEquals(UserStatus.ONLINE, createdUser.getStatus());
+
+        User foundUser = userService.getUser(createdUser.getId()).block();
+        assertEquals("testUsername", foundUser.getUsername());
+        assertEquals(createdUser.getToken(), foundUser.getToken());
+        assertEquals(UserStatus.ONLINE, foundUser.getStatus());
+    }
+
+    @Test
+    public void createUser_missingUsername_badRequest() {
+        User user = newUser("testUsername");
+        user.setUsername(null);
+
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> userService.createUser(user).block());
+        assertEquals(HttpStatus.BAD_REQUEST, exception.getStatusCode());
+    }
+
+    @Test
+    public void createUser_duplicateUsername_throwsException() {
+        userService.createUser(newUser("testUsername")).block();
+
+        User duplicate = newUser("testUsername");
+        duplicate.setEmail("other@example.com");
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> userService.createUser(duplicate).block());
+        assertEquals(HttpStatus.CONFLICT, exception.getStatusCode());
+    }
+
+    @Test
+    public void getUser_unknownId_notFound() {
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> userService.getUser(42L).block());
+        assertEquals(HttpStatus.NOT_FOUND, exception.getStatusCode());
+    }
+
+    @Test
+    public void loginAndSetOffline_statusWritten() {
+        User createdUser = userService.createUser(newUser("testUsername")).block();
+        User token = new User();
+        token.setToken(createdUser.getToken());
+
+        userService.setUserOffline(token, createdUser.getId()).block();
+        assertEquals(UserStatus.OFFLINE, userService.getUser(createdUser.getId()).block().getStatus());
+
+        User login = new User();
+        login.setUsername("testUsername");
+        login.setPassword("1234");
+        assertEquals(UserStatus.ONLINE, userService.loginUser(login).block().getStatus());
+        assertEquals(UserStatus.ONLINE, userService.getUser(createdUser.getId()).block().getStatus());
+
+        login.setPassword("wrong");
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> userService.loginUser(login).block());
+        assertEquals(HttpStatus.UNAUTHORIZED, exception.getStatusCode());
+    }
+
+    @Test
+    public void updateUser_checksTokenAndUsername() {
+        User createdUser = userService.createUser(newUser("testUsername")).block();
+        userService.createUser(newUser("otherUsername")).block();
+
+        User userInput = new User();
+        userInput.setUsername("otherUsername");
+        userInput.setToken("wrongToken");
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> userService.updateUser(userInput, createdUser.getId()).block());
+        assertEquals(HttpStatus.UNAUTHORIZED, exception.getStatusCode());
+
+        userInput.setToken(createdUser.getToken());
+        exception = assertThrows(ResponseStatusException.class,
+                () -> userService.updateUser(userInput, createdUser.getId()).block());
+        assertEquals(HttpStatus.CONFLICT, exception.getStatusCode());
+
+        userInput.setUsername("newUsername");
+        userInput.setBirthdate("01-01-2000");
+        userService.updateUser(userInput, createdUser.getId()).block();
+        User updatedUser = userService.getUser(createdUser.getId()).block();
+        assertEquals("newUsername", updatedUser.getUsername());
+        assertEquals("01-01-2000", updatedUser.getBirthdate());
+        assertEquals(createdUser.getVersion() + 1, updatedUser.getVersion());
+
+        // based on the version before the update
+        userInput.setVersion(createdUser.getVersion());
+        exception = assertThrows(ResponseStatusException.class,
+                () -> userService.updateUser(userInput, createdUser.getId()).block());
+        assertEquals(HttpStatus.PRECONDITION_FAILED, exception.getStatusCode());
+    }
+
+    @Test
+    public void searchUsers_byPrefixIgnoringCase() {
+        userService.createUser(newUser("Alice")).block();
+        userService.createUser(newUser("alina")).block();
+        userService.createUser(newUser("al_x")).block();
+        userService.createUser(newUser("bob")).block();
+
+        List<String> usernames = userService.searchUsers("AL", 10).map(User::getUsername).collectList().block();
+        assertEquals(List.of("al_x", "Alice", "alina"), usernames);
+        // the underscore is no wildcard
+        assertEquals(List.of("al_x"), userService.searchUsers("al_", 10).map(User::getUsername).collectList().block());
+        assertEquals(1, userService.searchUsers("al", 1).count().block());
+        assertThrows(ResponseStatusException.class, () -> userService.searchUsers("", 10).blockFirst());
+    }
+
+    @Test
+    public void createUsers_duplicates_rejectedPerUser() {
+        userService.createUser(newUser("taken")).block();
+
+        List<UserCreationResult> results = userService.createUsers(
+                List.of(newUser("first"), newUser("taken"), newUser("first"))).block();
+
+        assertEquals(HttpStatus.CREATED, results.get(0).getStatus());
+        assertNotNull(results.get(0).getUser().getId());
+        assertEquals(HttpStatus.CONFLICT, results.get(1).getStatus());
+        assertEquals(HttpStatus.CONFLICT, results.get(2).getStatus());
+        assertEquals(2L, userService.streamUsers().count().block());
+    }
+
+    @Test
+    public void createUsers_emptyBatch_noResults() {
+        assertEquals(List.of(), userService.createUsers(List.of()).block());
+        // "in ()" is not valid SQL for most databases
+        Mockito.verify(userRepository, Mockito.never()).findByUsernameInOrEmailIn(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    public void getUsers_pagesById() {
+        userService.createUsers(List.of(newUser("a"), newUser("b"), newUser("c"))).block();
+
+        Slice<User> firstPage = userService.getUsers(0, 2).block();
+        assertEquals(2, firstPage.getNumberOfElements());
+        assertTrue(firstPage.hasNext());
+
+        long cursor = firstPage.getContent().get(1).getId();
+        Slice<User> secondPage = userService.getUsers(cursor, 2).block();
+        assertEquals(1, secondPage.getNumberOfElements());
+        assertEquals("c", secondPage.getContent().get(0).getUsername());
+        assertFalse(secondPage.hasNext());
+    }
+}
@@ -0,0 +1,58 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimeoutWheelTest {
+
+  private TimeoutWheel timeoutWheel;
+
+  @BeforeEach
+  public void setup() {
+    // 10 second timeout, checked every second
+    timeoutWheel = new TimeoutWheel(10_000, 1_000);
+    timeoutWheel.expire(0);
+  }
+
+  @Test
+  public void expire_afterTimeout_returnsUser() {
+    timeoutWheel.schedule(1L, 500);
+
+    assertTrue(timeoutWheel.expire(10_000).isEmpty());
+    assertEquals(List.of(1L), timeoutWheel.expire(11_000));
+    // a user only expires once
+    assertTrue(timeoutWheel.expire(30_000).isEmpty());
+  }
+
+  @Test
+  public void expire_scheduledAgain_movesDeadline() {
+    timeoutWheel.schedule(1L, 500);
+    timeoutWheel.schedule(1L, 8_000);
+
+    assertTrue(timeoutWheel.expire(11_000).isEmpty());
+    assertEquals(List.of(1L), timeoutWheel.expire(19_000));
+  }
+
+  @Test
+  public void expire_cancelled_returnsNothing() {
+    timeoutWheel.schedule(1L, 500);
+    timeoutWheel.cancel(1L);
+
+    assertTrue(timeoutWheel.expire(11_000).isEmpty());
+  }
+
+  @Test
+  public void expire_afterLongPause_returnsAllExpiredUsers() {
+    timeoutWheel.schedule(1L, 500);
+    timeoutWheel.schedule(2L, 5_000);
+
+    List<Long> expired = timeoutWheel.expire(60_000);
+
+    assertEquals(2, expired.size());
+    assertTrue(expired.containsAll(List.of(1L, 2L)));
+  }
+}
@@ -0,0 +1,57 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenIndexTest {
+
+  private final AtomicLong nanoTime = new AtomicLong();
+
+  private UserRepository userRepository;
+
+  private TokenIndex tokenIndex;
+
+  private User testUser;
+
+  @BeforeEach
+  public void setup() {
+    userRepository = Mockito.mock(UserRepository.class);
+    tokenIndex = new TokenIndex(userRepository, 100, Duration.ofSeconds(5), nanoTime::get);
+
+    testUser = new User();
+    testUser.setId(1L);
+    testUser.setToken("555");
+  }
+
+  @Test
+  public void hasAccess_unknownToken_lookedUpOncePerTtl() {
+    assertFalse(tokenIndex.hasAccess("555", 1L));
+    assertFalse(tokenIndex.hasAccess("555", 1L));
+    Mockito.verify(userRepository, Mockito.times(1)).findByToken("555");
+
+    // e.g. issued by another instance in the meantime
+    Mockito.when(userRepository.findByToken("555")).thenReturn(testUser);
+    nanoTime.addAndGet(Duration.ofSeconds(5).toNanos());
+    assertTrue(tokenIndex.hasAccess("555", 1L));
+    Mockito.verify(userRepository, Mockito.times(2)).findByToken("555");
+  }
+
+  @Test
+  public void hasAccess_tokenIssuedAfterLookup_accepted() {
+    assertFalse(tokenIndex.hasAccess("555", 1L));
+
+    tokenIndex.register(testUser);
+
+    assertTrue(tokenIndex.hasAccess("555", 1L));
+    assertFalse(tokenIndex.hasAccess("555", 2L));
+    Mockito.verify(userRepository, Mockito.times(1)).findByToken("555");
+  }
+}
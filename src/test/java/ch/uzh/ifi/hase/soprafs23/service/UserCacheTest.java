@@ -0,0 +1,82 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserCacheTest {
+
+  private UserCache userCache;
+
+  private User testUser;
+
+  @BeforeEach
+  public void setup() {
+    userCache = new UserCache(100, Duration.ofMinutes(1));
+
+    testUser = new User();
+    testUser.setId(1L);
+    testUser.setEmail("Email");
+    testUser.setUsername("testUsername");
+    testUser.setPassword("hash");
+    testUser.setStatus(UserStatus.ONLINE);
+  }
+
+  @Test
+  public void getById_loadsOnlyOnce() {
+    AtomicInteger loads = new AtomicInteger();
+
+    userCache.getById(1L, id -> {
+      loads.incrementAndGet();
+      return testUser;
+    });
+    User cachedUser = userCache.getById(1L, id -> {
+      loads.incrementAndGet();
+      return testUser;
+    });
+
+    assertEquals(testUser.getId(), cachedUser.getId());
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void getById_returnsCopies() {
+    userCache.put(testUser);
+    User firstUser = userCache.getById(1L, id -> null);
+    User secondUser = userCache.getById(1L, id -> null);
+
+    assertNotSame(testUser, firstUser);
+    assertNotSame(firstUser, secondUser);
+
+    // changing a user from the cache or the one that was put does not change the cached user
+    firstUser.setStatus(UserStatus.OFFLINE);
+    testUser.setPassword("changed");
+    User thirdUser = userCache.getById(1L, id -> null);
+    assertEquals(UserStatus.ONLINE, thirdUser.getStatus());
+    assertEquals("hash", thirdUser.getPassword());
+    assertEquals("testUsername", userCache.getByUsername("TESTUSERNAME", username -> null).getUsername());
+  }
+
+  @Test
+  public void getById_notFound_isNotCached() {
+    assertNull(userCache.getById(1L, id -> null));
+
+    assertEquals(testUser.getId(), userCache.getById(1L, id -> testUser).getId());
+  }
+
+  @Test
+  public void evictUsername_oldUsernameIsLoadedAgain() {
+    userCache.put(testUser);
+
+    userCache.evictUsername("testUsername");
+
+    assertNull(userCache.getByUsername("testUsername", username -> null));
+    assertEquals(testUser.getId(), userCache.getByEmail("Email", email -> null).getId());
+  }
+}
@@ -0,0 +1,142 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.constant.UserEventType;
+import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserEventDTO;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserEventBroadcasterTest {
+
+  private UserEventBroadcaster userEventBroadcaster;
+
+  @BeforeEach
+  public void setup() {
+    userEventBroadcaster = new UserEventBroadcaster(new ObjectMapper(), 2, Duration.ofMinutes(1));
+  }
+
+  @AfterEach
+  public void teardown() {
+    userEventBroadcaster.shutdown();
+  }
+
+  @Test
+  public void publish_sendsEventToSubscriber() throws InterruptedException {
+    CountDownLatch sent = new CountDownLatch(1);
+    userEventBroadcaster.subscribe(new SseEmitter() {
+      @Override
+      public void send(SseEventBuilder builder) {
+        sent.countDown();
+      }
+    });
+
+    userEventBroadcaster.publish(new UserEventDTO(UserEventType.STATUS_CHANGED, 1L, null, UserStatus.OFFLINE));
+
+    assertTrue(sent.await(5, TimeUnit.SECONDS));
+    assertEquals(1, userEventBroadcaster.getSubscriberCount());
+  }
+
+  @Test
+  public void publish_stalledSubscribers_otherSubscribersStillReceiveEvents() throws InterruptedException {
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch blocked = new CountDownLatch(8);
+    // more stalled connections than a shared pool of sender threads would have
+    for (int i = 0; i < 8; i++) {
+      userEventBroadcaster.subscribe(new SseEmitter() {
+        @Override
+        public void send(SseEventBuilder builder) {
+          blocked.countDown();
+          try {
+            release.await();
+          }
+          catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      });
+    }
+    CountDownLatch sent = new CountDownLatch(3);
+    userEventBroadcaster.subscribe(new SseEmitter() {
+      @Override
+      public void send(SseEventBuilder builder) {
+        sent.countDown();
+      }
+    });
+
+    userEventBroadcaster.publish(new UserEventDTO(UserEventType.STATUS_CHANGED, 1L, null, UserStatus.ONLINE));
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+    userEventBroadcaster.publish(new UserEventDTO(UserEventType.STATUS_CHANGED, 2L, null, UserStatus.ONLINE));
+    userEventBroadcaster.publish(new UserEventDTO(UserEventType.STATUS_CHANGED, 3L, null, UserStatus.ONLINE));
+
+    assertTrue(sent.await(5, TimeUnit.SECONDS));
+    release.countDown();
+  }
+
+  @Test
+  public void publish_slowSubscriber_isDisconnected() throws InterruptedException {
+    CountDownLatch blocked = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    userEventBroadcaster.subscribe(new SseEmitter() {
+      @Override
+      public void send(SseEventBuilder builder) throws IOException {
+        blocked.countDown();
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+
+    // the first event blocks the sender, the next two fill the buffer
+    userEventBroadcaster.publish(new UserEventDTO(UserEventType.STATUS_CHANGED, 1L, null, UserStatus.ONLINE));
+    assertTrue(blocked.await(5, TimeUnit.SECONDS));
+    userEventBroadcaster.publish(new UserEventDTO(UserEventType.STATUS_CHANGED, 2L, null, UserStatus.ONLINE));
+    userEventBroadcaster.publish(new UserEventDTO(UserEventType.STATUS_CHANGED, 3L, null, UserStatus.ONLINE));
+    assertEquals(1, userEventBroadcaster.getSubscriberCount());
+
+    // the buffer is full
+    userEventBroadcaster.publish(new UserEventDTO(UserEventType.STATUS_CHANGED, 4L, null, UserStatus.ONLINE));
+    assertEquals(0, userEventBroadcaster.getSubscriberCount());
+    release.countDown();
+  }
+
+  @Test
+  public void publish_outdatedStatusChange_isDropped() throws InterruptedException {
+    List<String> sentEvents = new CopyOnWriteArrayList<>();
+    CountDownLatch sent = new CountDownLatch(2);
+    userEventBroadcaster.subscribe(new SseEmitter() {
+      @Override
+      public void send(SseEventBuilder builder) {
+        StringBuilder event = new StringBuilder();
+        builder.build().forEach(part -> event.append(part.getData()));
+        sentEvents.add(event.toString());
+        sent.countDown();
+      }
+    });
+
+    // the events of two concurrent changes, delivered in the wrong order
+    userEventBroadcaster.publish(new UserEventDTO(UserEventType.STATUS_CHANGED, 1L, null, UserStatus.OFFLINE, 2L));
+    userEventBroadcaster.publish(new UserEventDTO(UserEventType.STATUS_CHANGED, 1L, null, UserStatus.ONLINE, 1L));
+    // other users and events without a sequence number are not affected
+    userEventBroadcaster.publish(new UserEventDTO(UserEventType.CREATED, 2L, "username", UserStatus.ONLINE));
+
+    assertTrue(sent.await(5, TimeUnit.SECONDS));
+    assertEquals(2, sentEvents.size());
+    assertTrue(sentEvents.get(0).contains("\"status\":\"OFFLINE\""));
+    assertTrue(sentEvents.get(1).contains("\"type\":\"CREATED\""));
+  }
+}
@@ -1,17 +1,29 @@
 package ch.uzh.ifi.hase.soprafs23.service;
 
 
+import ch.uzh.ifi.hase.soprafs23.constant.UserField;
 import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.metrics.MetricsConfiguration;
 import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
+import ch.uzh.ifi.hase.soprafs23.rest.dto.UserGetDTO;
+import ch.uzh.ifi.hase.soprafs23.rest.mapper.DTOMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -32,9 +44,28 @@ public class UserServiceIntegrationTest {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private UserCache userCache;
+
+    @Autowired
+    private PresenceService presenceService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    @Autowired
+    private UserKeyMigration userKeyMigration;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
     @BeforeEach
     public void setup() {
         userRepository.deleteAll();
+        userCache.invalidateAll();
     }
 
     @Test
@@ -110,4 +141,300 @@ public class UserServiceIntegrationTest {
         assertThrows(ResponseStatusException.class, () -> userService.getUser(1L));
     }
 
+    @Test
+    public void streamUsers_returnsAllUsersOrderedById() {
+        User firstUser = new User();
+        firstUser.setEmail("Email");
+        firstUser.setUsername("testUsername");
+        firstUser.setPassword("1234");
+        userService.createUser(firstUser);
+
+        User secondUser = new User();
+        secondUser.setEmail("Email1");
+        secondUser.setUsername("testUsername1");
+        secondUser.setPassword("1234");
+        userService.createUser(secondUser);
+
+        List<String> usernames = new ArrayList<>();
+        userService.streamUsers(user -> usernames.add(user.getUsername()));
+
+        assertEquals(List.of("testUsername", "testUsername1"), usernames);
+    }
+
+    @Test
+    public void setUserOffline_statusIsWrittenOnFlush() {
+        User testUser = new User();
+        testUser.setEmail("Email");
+        testUser.setUsername("testUsername");
+        testUser.setPassword("1234");
+        User createdUser = userService.createUser(testUser);
+
+        User tokenInput = new User();
+        tokenInput.setToken(createdUser.getToken());
+        userService.setUserOffline(tokenInput, createdUser.getId());
+
+        // the status is served from memory right away
+        assertEquals(UserStatus.OFFLINE, userService.getUser(createdUser.getId()).getStatus());
+        // and written to the database with the next flush
+        presenceService.flush();
+        assertEquals(UserStatus.OFFLINE, userRepository.findById((long) createdUser.getId()).getStatus());
+    }
+
+    @Test
+    public void loginUser_plainTextPassword_rehashedOnLogin() {
+        User testUser = new User();
+        testUser.setEmail("Email");
+        testUser.setUsername("testUsername");
+        testUser.setPassword("1234");
+        User createdUser = userService.createUser(testUser);
+        assertNotEquals("1234", userRepository.findById((long) createdUser.getId()).getPassword());
+
+        // given -> stored before passwords were hashed
+        userRepository.updatePassword(createdUser.getId(), "1234");
+        userCache.invalidateAll();
+
+        User loginInput = new User();
+        loginInput.setUsername("testUsername");
+        loginInput.setPassword("1234");
+        userService.loginUser(loginInput);
+
+        // then -> replaced by a hash that still matches
+        String storedPassword = userRepository.findById((long) createdUser.getId()).getPassword();
+        assertNotEquals("1234", storedPassword);
+        assertTrue(passwordHasher.matches("1234", storedPassword));
+        assertFalse(passwordHasher.needsRehash(storedPassword));
+
+        loginInput.setPassword("wrong");
+        assertThrows(ResponseStatusException.class, () -> userService.loginUser(loginInput));
+    }
+
+    @Test
+    public void createUser_usernameDiffersInCase_throwsConflict() {
+        User testUser = new User();
+        testUser.setEmail("Email");
+        testUser.setUsername("testUsername");
+        testUser.setPassword("1234");
+        User createdUser = userService.createUser(testUser);
+
+        User testUser2 = new User();
+        testUser2.setEmail("EMAIL1");
+        testUser2.setUsername("TestUserName");
+        testUser2.setPassword("1234");
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> userService.createUser(testUser2));
+        assertEquals(HttpStatus.CONFLICT, exception.getStatusCode());
+        assertFalse(userService.isEmailAvailable("EMAIL"));
+
+        // the login finds the user by any case, the owner may change the case
+        User loginInput = new User();
+        loginInput.setUsername("TESTUSERNAME");
+        loginInput.setPassword("1234");
+        assertEquals(createdUser.getId(), userService.loginUser(loginInput).getId());
+
+        User userInput = new User();
+        userInput.setUsername("TestUsername");
+        userInput.setToken(createdUser.getToken());
+        assertEquals("TestUsername", userService.updateUser(userInput, createdUser.getId()).getUsername());
+    }
+
+    @Test
+    public void migrate_usersWithoutKeys_keysSetAndDuplicatesReported() {
+        User firstUser = new User();
+        firstUser.setEmail("First@Example.com");
+        firstUser.setUsername("bob");
+        firstUser.setPassword("1234");
+        firstUser = userService.createUser(firstUser);
+        User secondUser = new User();
+        secondUser.setEmail("second@example.com");
+        secondUser.setUsername("carl");
+        secondUser.setPassword("1234");
+        secondUser = userService.createUser(secondUser);
+
+        // as stored before the key columns existed, with usernames that only differ in case
+        jdbcTemplate.update("update \"user\" set username_key = null, email_key = null");
+        jdbcTemplate.update("update \"user\" set username = 'Bob' where id = ?", secondUser.getId());
+        userCache.invalidateAll();
+        assertNull(userRepository.findByUsername("bob"));
+
+        IllegalStateException exception = assertThrows(IllegalStateException.class, () -> userKeyMigration.migrate());
+        assertTrue(exception.getMessage().contains("the username of user " + secondUser.getId()
+                + " (the same as user " + firstUser.getId() + ")"), exception.getMessage());
+
+        // all other keys are set
+        assertEquals(firstUser.getId(), userRepository.findByUsername("BOB").getId());
+        assertEquals(firstUser.getId(), userRepository.findByEmail("first@example.com").getId());
+        assertEquals(secondUser.getId(), userRepository.findByEmail("second@example.com").getId());
+        // still reported until the user is renamed
+        assertThrows(IllegalStateException.class, () -> userKeyMigration.migrate());
+        jdbcTemplate.update("update \"user\" set username = 'Bob2' where id = ?", secondUser.getId());
+        assertEquals(1, userKeyMigration.migrate());
+        assertEquals(secondUser.getId(), userRepository.findByUsername("bob2").getId());
+        assertEquals(0, userKeyMigration.migrate());
+    }
+
+    @Test
+    public void searchUsers_afterCreateAndRename() {
+        List<User> users = new ArrayList<>();
+        for (String username : List.of("Alice", "alina", "bob")) {
+            User testUser = new User();
+            testUser.setEmail(username + "@example.com");
+            testUser.setUsername(username);
+            testUser.setPassword("1234");
+            users.add(userService.createUser(testUser));
+        }
+
+        assertEquals(List.of("Alice", "alina"), userService.searchUsers("AL", 10).stream().map(User::getUsername).toList());
+        assertEquals(1, userService.searchUsers("al", 1).size());
+
+        User userInput = new User();
+        userInput.setUsername("carla");
+        userInput.setToken(users.get(1).getToken());
+        userService.updateUser(userInput, users.get(1).getId());
+
+        assertEquals(List.of("Alice"), userService.searchUsers("al", 10).stream().map(User::getUsername).toList());
+        assertEquals(List.of("carla"), userService.searchUsers("c", 10).stream().map(User::getUsername).toList());
+        assertThrows(ResponseStatusException.class, () -> userService.searchUsers(null, 10));
+    }
+
+    @Test
+    public void updateUser_versionIncrementedAndChecked() {
+        User testUser = new User();
+        testUser.setEmail("Email");
+        testUser.setUsername("testUsername");
+        testUser.setPassword("1234");
+        User createdUser = userService.createUser(testUser);
+        long version = createdUser.getVersion();
+
+        User userInput = new User();
+        userInput.setUsername("newUsername");
+        userInput.setToken(createdUser.getToken());
+        userInput.setVersion(version);
+        User updatedUser = userService.updateUser(userInput, createdUser.getId());
+
+        assertEquals(version + 1, updatedUser.getVersion());
+        assertEquals(version + 1, userService.getUser(createdUser.getId()).getVersion());
+
+        // a second update based on the old version
+        userInput.setUsername("otherUsername");
+        ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+                () -> userService.updateUser(userInput, createdUser.getId()));
+        assertEquals(HttpStatus.PRECONDITION_FAILED, exception.getStatusCode());
+        assertEquals("newUsername", userRepository.findById((long) createdUser.getId()).getUsername());
+    }
+
+    @Test
+    public void getUser_fields_readFromCacheOrColumns() {
+        User testUser = new User();
+        testUser.setEmail("Email");
+        testUser.setUsername("testUsername");
+        testUser.setPassword("1234");
+        User createdUser = userService.createUser(testUser);
+
+        // cached since it was created, so all fields are there
+        assertEquals(createdUser.getToken(),
+                userService.getUser(createdUser.getId(), EnumSet.of(UserField.USERNAME)).getToken());
+
+        userCache.invalidateAll();
+        User partialUser = userService.getUser(createdUser.getId(), EnumSet.of(UserField.USERNAME));
+        assertEquals("testUsername", partialUser.getUsername());
+        assertEquals(UserStatus.ONLINE, partialUser.getStatus());
+        assertNull(partialUser.getToken());
+        assertThrows(ResponseStatusException.class,
+                () -> userService.getUser(createdUser.getId() + 1000, EnumSet.of(UserField.USERNAME)));
+
+        assertEquals(List.of("testUsername"), userService.getUsers(0, 10, EnumSet.of(UserField.USERNAME))
+                .map(User::getUsername).toList());
+    }
+
+    @Test
+    public void getUserGetDTOs_sameAsMappedEntities() {
+        for (int i = 0; i < 3; i++) {
+            User testUser = new User();
+            testUser.setEmail("Email" + i);
+            testUser.setUsername("testUsername" + i);
+            testUser.setPassword("1234");
+            userService.createUser(testUser);
+        }
+
+        Slice<User> users = userService.getUsers(0, 2);
+        Slice<UserGetDTO> userGetDTOs = userService.getUserGetDTOs(0, 2);
+
+        assertEquals(users.hasNext(), userGetDTOs.hasNext());
+        assertEquals(2, userGetDTOs.getNumberOfElements());
+        for (int i = 0; i < 2; i++) {
+            UserGetDTO expected = DTOMapper.INSTANCE.convertEntityToUserGetDTO(users.getContent().get(i));
+            UserGetDTO actual = userGetDTOs.getContent().get(i);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getUsername(), actual.getUsername());
+            assertEquals(expected.getEmail(), actual.getEmail());
+            assertEquals(expected.getToken(), actual.getToken());
+            // the status from the PresenceService, not the column
+            assertEquals(UserStatus.ONLINE, actual.getStatus());
+        }
+    }
+
+    @Test
+    public void isUsernameAvailable_afterCreateAndRename() {
+        assertTrue(userService.isUsernameAvailable("testUsername"));
+        assertTrue(userService.isEmailAvailable("Email"));
+
+        User testUser = new User();
+        testUser.setEmail("Email");
+        testUser.setUsername("testUsername");
+        testUser.setPassword("1234");
+        User createdUser = userService.createUser(testUser);
+
+        assertFalse(userService.isUsernameAvailable("testUsername"));
+        assertFalse(userService.isEmailAvailable("Email"));
+
+        User userInput = new User();
+        userInput.setUsername("newUsername");
+        userInput.setToken(createdUser.getToken());
+        userService.updateUser(userInput, createdUser.getId());
+
+        // the old username stays in the filter and is looked up in the database
+        assertTrue(userService.isUsernameAvailable("testUsername"));
+        assertFalse(userService.isUsernameAvailable("newUsername"));
+    }
+
+    @Test
+    public void createUsers_duplicates_reportedPerUser() {
+        User existingUser = new User();
+        existingUser.setEmail("Email");
+        existingUser.setUsername("testUsername");
+        existingUser.setPassword("1234");
+        userService.createUser(existingUser);
+
+        List<User> newUsers = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            User newUser = new User();
+            newUser.setEmail("Email" + i);
+            newUser.setUsername("testUsername" + i);
+            newUser.setPassword("1234");
+            newUsers.add(newUser);
+        }
+        // username already exists
+        newUsers.get(1).setUsername("testUsername");
+        // email used earlier in the same batch
+        newUsers.get(2).setEmail("Email1");
+
+        List<UserCreationResult> results = userService.createUsers(newUsers);
+
+        assertEquals(HttpStatus.CREATED, results.get(0).getStatus());
+        assertNotNull(results.get(0).getUser().getId());
+        assertNotNull(userRepository.findByUsername("testUsername1"));
+        assertEquals(HttpStatus.CONFLICT, results.get(1).getStatus());
+        assertEquals(HttpStatus.CONFLICT, results.get(2).getStatus());
+        assertNull(userRepository.findByUsername("testUsername3"));
+    }
+
+    @Test
+    public void getUserById_unknownUser_timedWithStatus() {
+        assertThrows(ResponseStatusException.class, () -> userService.getUserById(42L));
+
+        assertTrue(meterRegistry.get(MetricsConfiguration.SERVICE_TIMER)
+                .tags("class", "UserService", "method", "getUserById", "status", "404").timer().count() >= 1);
+        assertTrue(meterRegistry.get(MetricsConfiguration.REPOSITORY_TIMER)
+                .tags("class", "UserRepository", "method", "findById", "exception", "none").timer().count() >= 1);
+    }
 }
@@ -3,6 +3,7 @@ package ch.uzh.ifi.hase.soprafs23.service;
 
 import ch.uzh.ifi.hase.soprafs23.constant.UserStatus;
 import ch.uzh.ifi.hase.soprafs23.entity.User;
+import ch.uzh.ifi.hase.soprafs23.repository.UserIdentityView;
 import ch.uzh.ifi.hase.soprafs23.repository.UserRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -10,8 +11,15 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.time.Duration;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class UserServiceTest {
@@ -19,6 +27,27 @@ public class UserServiceTest {
   @Mock
   private UserRepository userRepository;
 
+  @Mock
+  private TokenIndex tokenIndex;
+
+  @Mock
+  private PresenceService presenceService;
+
+  @Mock
+  private ApplicationEventPublisher eventPublisher;
+
+  @Mock
+  private IdentityFilter identityFilter;
+
+  @Mock
+  private UsernameIndex usernameIndex;
+
+  @Spy
+  private UserCache userCache = new UserCache(100, Duration.ofMinutes(1));
+
+  @Spy
+  private PasswordHasher passwordHasher = new PasswordHasher(4, 1, 10);
+
   @InjectMocks
   private UserService userService;
 
@@ -37,7 +66,10 @@ public class UserServiceTest {
 
     // when -> any object is being save in the userRepository -> return the dummy
     // testUser
-    Mockito.when(userRepository.save(Mockito.any())).thenReturn(testUser);
+    Mockito.when(userRepository.saveAndFlush(Mockito.any())).thenReturn(testUser);
+    // as before the filter is loaded, every username and email might exist
+    Mockito.when(identityFilter.mightContainUsername(Mockito.any())).thenReturn(true);
+    Mockito.when(identityFilter.mightContainEmail(Mockito.any())).thenReturn(true);
   }
 
   @Test
@@ -47,13 +79,16 @@ public class UserServiceTest {
     User createdUser = userService.createUser(testUser);
 
     // then
-    Mockito.verify(userRepository, Mockito.times(1)).save(Mockito.any());
+    Mockito.verify(userRepository, Mockito.times(1)).saveAndFlush(Mockito.any());
 
     assertEquals(testUser.getId(), createdUser.getId());
     assertEquals(testUser.getEmail(), createdUser.getEmail());
     assertEquals(testUser.getUsername(), createdUser.getUsername());
     assertNotNull(createdUser.getToken());
     assertEquals(UserStatus.ONLINE, createdUser.getStatus());
+    // only the hash is stored
+    assertNotEquals("1234", createdUser.getPassword());
+    assertTrue(passwordHasher.matches("1234", createdUser.getPassword()));
   }
 
   @Test
@@ -62,8 +97,8 @@ public class UserServiceTest {
     userService.createUser(testUser);
 
     // when -> setup additional mocks for UserRepository
-    Mockito.when(userRepository.findByEmail(Mockito.any())).thenReturn(testUser);
-    Mockito.when(userRepository.findByUsername(Mockito.any())).thenReturn(null);
+    Mockito.when(userRepository.findIdentities(Mockito.any(), Mockito.any()))
+            .thenReturn(List.of(identity("otherUsername", testUser.getEmail())));
 
     // then -> attempt to create second user with same user -> check that an error
     // is thrown
@@ -76,12 +111,95 @@ public class UserServiceTest {
     userService.createUser(testUser);
 
     // when -> setup additional mocks for UserRepository
-    Mockito.when(userRepository.findByEmail(Mockito.any())).thenReturn(testUser);
-    Mockito.when(userRepository.findByUsername(Mockito.any())).thenReturn(testUser);
+    Mockito.when(userRepository.findIdentities(Mockito.any(), Mockito.any()))
+            .thenReturn(List.of(identity(testUser.getUsername(), testUser.getEmail())));
 
     // then -> attempt to create second user with same user -> check that an error
     // is thrown
     assertThrows(ResponseStatusException.class, () -> userService.createUser(testUser));
   }
 
+  @Test
+  public void createUser_ruledOutByIdentityFilter_skipsLookup() {
+    Mockito.when(identityFilter.mightContainUsername(testUser.getUsername())).thenReturn(false);
+    Mockito.when(identityFilter.mightContainEmail(testUser.getEmail())).thenReturn(false);
+
+    userService.createUser(testUser);
+
+    Mockito.verify(userRepository, Mockito.never()).findIdentities(Mockito.any(), Mockito.any());
+    Mockito.verify(identityFilter).putUsername(testUser.getUsername());
+    Mockito.verify(identityFilter).putEmail(testUser.getEmail());
+  }
+
+  @Test
+  public void isUsernameAvailable_ruledOutByIdentityFilter_skipsLookup() {
+    Mockito.when(identityFilter.mightContainUsername("newUsername")).thenReturn(false);
+
+    assertTrue(userService.isUsernameAvailable("newUsername"));
+    Mockito.verify(userRepository, Mockito.never()).findByUsername(Mockito.any());
+  }
+
+  @Test
+  public void createUser_concurrentDuplicate_throwsConflict() {
+    // given -> the username was taken between the check and the flush
+    Mockito.doThrow(new DataIntegrityViolationException("could not execute statement",
+            new RuntimeException("Unique index or primary key violation: PUBLIC.USER(USERNAME)")))
+            .when(userRepository).saveAndFlush(Mockito.any());
+
+    // then
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+            () -> userService.createUser(testUser));
+    assertEquals(HttpStatus.CONFLICT, exception.getStatusCode());
+    assertTrue(exception.getReason().contains("username"));
+  }
+
+  @Test
+  public void updateUser_wrongToken_throwsExceptionBeforeLoadingUser() {
+    // given -> the token index does not grant access
+    Mockito.when(tokenIndex.hasAccess(Mockito.any(), Mockito.anyLong())).thenReturn(false);
+
+    User userInput = new User();
+    userInput.setUsername("newUsername");
+    userInput.setToken("wrongToken");
+
+    // then -> the request is rejected without a repository lookup
+    assertThrows(ResponseStatusException.class, () -> userService.updateUser(userInput, 1L));
+    Mockito.verify(userRepository, Mockito.never()).findById(Mockito.anyLong());
+  }
+
+  @Test
+  public void updateUser_usernameTakenConcurrently_throwsConflict() {
+    // given -> the username is free when checked, but taken before the update is flushed
+    Mockito.when(tokenIndex.hasAccess(Mockito.any(), Mockito.anyLong())).thenReturn(true);
+    Mockito.when(userRepository.findById(1L)).thenReturn(testUser);
+    Mockito.doThrow(new DataIntegrityViolationException("could not execute statement",
+            new RuntimeException("Unique index or primary key violation: PUBLIC.USER(USERNAME_KEY)")))
+            .when(userRepository).saveAndFlush(Mockito.any());
+
+    User userInput = new User();
+    userInput.setUsername("newUsername");
+    userInput.setToken("token");
+
+    // then
+    ResponseStatusException exception = assertThrows(ResponseStatusException.class,
+            () -> userService.updateUser(userInput, 1L));
+    assertEquals(HttpStatus.CONFLICT, exception.getStatusCode());
+    assertEquals("Username already taken", exception.getReason());
+    Mockito.verify(userCache, Mockito.never()).put(Mockito.any());
+  }
+
+  private static UserIdentityView identity(String username, String email) {
+    return new UserIdentityView() {
+      @Override
+      public String getUsername() {
+        return username;
+      }
+
+      @Override
+      public String getEmail() {
+        return email;
+      }
+    };
+  }
+
 }
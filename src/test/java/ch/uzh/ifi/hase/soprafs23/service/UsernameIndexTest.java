@@ -0,0 +1,49 @@
+package ch.uzh.ifi.hase.soprafs23.service;
+
+import ch.uzh.ifi.hase.soprafs23.entity.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class UsernameIndexTest {
+
+    private final UsernameIndex usernameIndex = new UsernameIndex(null);
+
+    private static User user(long id, String username) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        return user;
+    }
+
+    @Test
+    public void findIdsByPrefix_alphabeticalAndLimited() {
+        usernameIndex.register(user(1, "bob"));
+        usernameIndex.register(user(2, "Alice"));
+        usernameIndex.register(user(3, "al"));
+        usernameIndex.register(user(4, "Alina"));
+        usernameIndex.register(user(5, "am"));
+
+        assertEquals(List.of(3L, 2L, 4L), usernameIndex.findIdsByPrefix("AL", 10));
+        assertEquals(List.of(3L, 2L), usernameIndex.findIdsByPrefix("al", 2));
+        assertEquals(List.of(1L), usernameIndex.findIdsByPrefix("b", 10));
+        assertEquals(List.of(), usernameIndex.findIdsByPrefix("c", 10));
+    }
+
+    @Test
+    public void rename_movesUser() {
+        User user = user(1, "alice");
+        usernameIndex.register(user);
+
+        user.setUsername("Alice");
+        usernameIndex.rename("alice", user);
+        assertEquals(List.of(1L), usernameIndex.findIdsByPrefix("a", 10));
+
+        user.setUsername("bob");
+        usernameIndex.rename("Alice", user);
+        assertEquals(List.of(), usernameIndex.findIdsByPrefix("a", 10));
+        assertEquals(List.of(1L), usernameIndex.findIdsByPrefix("b", 10));
+    }
+}